@@ -0,0 +1,98 @@
+package com.ambitious.iptvserver.config;
+
+import com.ambitious.iptvserver.entity.ServerInfo;
+import com.ambitious.iptvserver.entity.ServersSnapshot;
+import com.ambitious.iptvserver.util.M3uParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 配置解析的开销：YAML / M3U 解析成原始 map，以及原始 map 转换成直播源列表，
+ * 转换分为首次加载（全部新建）和刷新（沿用旧快照中的对象）两种情况
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatServersMapBenchmark {
+
+    /**
+     * 电视台数量
+     */
+    @Param({"100", "1000"})
+    private int channels;
+    /**
+     * 每个电视台的直播源数量
+     */
+    @Param({"10"})
+    private int sourcesPerChannel;
+
+    private String yaml;
+    private byte[] m3u;
+    private Map<String, Object> rawMap;
+    private ServersSnapshot warmSnapshot;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        StringBuilder yamlBuilder = new StringBuilder();
+        StringBuilder m3uBuilder = new StringBuilder("#EXTM3U\n");
+        for (int i = 0; i < channels; i++) {
+            String tvKey = "tv" + i;
+            yamlBuilder.append(tvKey).append(":\n");
+            for (int j = 0; j < sourcesPerChannel; j++) {
+                String url = "http://host" + j + ".example.com/live/" + i + "/index.m3u8?token=" + (i * 31 + j);
+                yamlBuilder.append("  - ").append(url).append('\n');
+                m3uBuilder.append("#EXTINF:-1 tvg-id=\"").append(tvKey).append("\" tvg-name=\"")
+                        .append(tvKey).append("\" group-title=\"group").append(i % 10).append("\",")
+                        .append(tvKey).append('\n').append(url).append('\n');
+            }
+        }
+        yaml = yamlBuilder.toString();
+        m3u = m3uBuilder.toString().getBytes(StandardCharsets.UTF_8);
+        rawMap = new Yaml().load(yaml);
+        Map<String, List<ServerInfo>> servers = IptvConfig.formatServersMap(rawMap, ServersSnapshot.EMPTY);
+        warmSnapshot = new ServersSnapshot(1, servers);
+    }
+
+    @Benchmark
+    public Map<String, Object> parseYaml() {
+        return new Yaml().load(yaml);
+    }
+
+    @Benchmark
+    public M3uParser.Result parseM3u() throws IOException {
+        return M3uParser.parse(new ByteArrayInputStream(m3u));
+    }
+
+    @Benchmark
+    public Map<String, List<ServerInfo>> formatCold() {
+        return IptvConfig.formatServersMap(rawMap, ServersSnapshot.EMPTY);
+    }
+
+    @Benchmark
+    public Map<String, List<ServerInfo>> formatWarm() {
+        return IptvConfig.formatServersMap(rawMap, warmSnapshot);
+    }
+}
@@ -0,0 +1,142 @@
+package com.ambitious.iptvserver.config;
+
+import com.ambitious.iptvserver.entity.ServerInfo;
+import com.ambitious.iptvserver.entity.ServerProxy;
+import com.ambitious.iptvserver.entity.ServersSnapshot;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求路径上读取配置的开销：多个线程并发读取直播源列表、判断是否代理、获取代理请求头，
+ * 读写组中同时有一个线程不断重新排序，观察发布新快照对读取的影响
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IptvConfigReadBenchmark {
+
+    /**
+     * 电视台数量
+     */
+    @Param({"200"})
+    private int channels;
+    /**
+     * 代理配置的数量，一半是精确主机，一半是通配规则
+     */
+    @Param({"4", "64", "4096"})
+    private int proxies;
+
+    private String[] tvKeys;
+    private String[] proxiedUrls;
+    private String[] directUrls;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        tvKeys = new String[channels];
+        Map<String, List<ServerInfo>> servers = Maps.newLinkedHashMap();
+        for (int i = 0; i < channels; i++) {
+            tvKeys[i] = "tv" + i;
+            List<ServerInfo> list = Lists.newArrayList();
+            for (int j = 0; j < 8; j++) {
+                ServerInfo server = new ServerInfo("http://host" + j + ".example.com/live/" + i + ".m3u8");
+                server.addRecord(j % 3 != 0, 100L * j);
+                list.add(server);
+            }
+            servers.put(tvKeys[i], list);
+        }
+        IptvConfig.setSnapshot(new ServersSnapshot(1, servers));
+
+        List<ServerProxy> proxyList = Lists.newArrayList();
+        proxiedUrls = new String[proxies];
+        for (int i = 0; i < proxies; i++) {
+            ServerProxy proxy = new ServerProxy();
+            proxy.setHeaders(Lists.newArrayList("Referer|http://proxy" + i + ".example.com/", "User-Agent|Mozilla/5.0"));
+            if (i % 2 == 0) {
+                proxy.setHost("proxy" + i + ".example.com:8080");
+                proxiedUrls[i] = "http://proxy" + i + ".example.com:8080/live/" + i + "/index.m3u8?token=abc";
+            } else {
+                proxy.setHost("*.cdn" + i + ".example.net");
+                proxiedUrls[i] = "http://edge.cdn" + i + ".example.net/live/" + i + "/index.m3u8?token=abc";
+            }
+            proxyList.add(proxy);
+        }
+        IptvConfig.initProxies(proxyList);
+        directUrls = new String[64];
+        for (int i = 0; i < directUrls.length; i++) {
+            directUrls[i] = "http://direct" + i + ".example.com/live/" + i + ".m3u8";
+        }
+    }
+
+    private static <T> T pick(T[] values) {
+        return values[ThreadLocalRandom.current().nextInt(values.length)];
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<ServerInfo> getServers() {
+        return IptvConfig.getServers(pick(tvKeys));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean checkNeedProxyHit() {
+        return IptvConfig.checkNeedProxy(pick(proxiedUrls));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean checkNeedProxyMiss() {
+        return IptvConfig.checkNeedProxy(pick(directUrls));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object getProxyHeaders() {
+        return IptvConfig.getProxyHeaders(pick(proxiedUrls));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object getProxyHeadersMiss() {
+        return IptvConfig.getProxyHeaders(pick(directUrls));
+    }
+
+    @Benchmark
+    @Group("readWhileResort")
+    @GroupThreads(3)
+    public List<ServerInfo> reader() {
+        return IptvConfig.getServers(pick(tvKeys));
+    }
+
+    @Benchmark
+    @Group("readWhileResort")
+    @GroupThreads(1)
+    public void writer() {
+        IptvConfig.reSort(pick(tvKeys));
+    }
+}
@@ -0,0 +1,73 @@
+package com.ambitious.iptvserver.config;
+
+import com.ambitious.iptvserver.entity.ServerInfo;
+import com.ambitious.iptvserver.entity.ServersSnapshot;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个电视台下直播源数量很大时重新排序的开销，
+ * 每次排序前随机修改一个直播源的评分，避免每次都是对已经有序的列表排序
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReSortBenchmark {
+
+    private static final String TV_KEY = "cctv1";
+
+    /**
+     * 电视台下的直播源数量
+     */
+    @Param({"100", "1000", "10000"})
+    private int sources;
+
+    private ServerInfo[] servers;
+    private final Random random = new Random(42);
+
+    @Setup(Level.Trial)
+    public void setup() {
+        servers = new ServerInfo[sources];
+        List<ServerInfo> list = Lists.newArrayListWithCapacity(sources);
+        for (int i = 0; i < sources; i++) {
+            ServerInfo server = new ServerInfo("http://host" + (i % 50) + ".example.com/live/" + i + ".m3u8");
+            for (int j = 0; j < 5; j++) {
+                server.addRecord(random.nextInt(4) != 0, 100 + random.nextInt(3000));
+            }
+            servers[i] = server;
+            list.add(server);
+        }
+        Map<String, List<ServerInfo>> map = Maps.newHashMap();
+        map.put(TV_KEY, list);
+        IptvConfig.setSnapshot(new ServersSnapshot(1, map));
+    }
+
+    @Benchmark
+    public ServersSnapshot reSort() {
+        servers[random.nextInt(servers.length)].addRecord(random.nextBoolean(), random.nextInt(3000));
+        IptvConfig.reSort(TV_KEY);
+        return IptvConfig.getSnapshot();
+    }
+}
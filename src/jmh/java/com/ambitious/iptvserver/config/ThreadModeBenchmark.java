@@ -0,0 +1,174 @@
+package com.ambitious.iptvserver.config;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 普通线程与虚拟线程执行阻塞任务的对比：每次调用并发执行一批阻塞的 OkHttp 请求，
+ * probe 模拟探测（上游延迟返回、响应很小），copy 模拟代理拷贝（上游分块输出较大的响应体）；
+ * 上游是本地的 JDK HttpServer，两种模式使用相同的上游线程池；
+ * virtual 需要 JDK 21 及以上运行，更早的 JDK 上这部分参数会在初始化时失败，可以用 -p mode=platform 跳过
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ThreadModeBenchmark {
+
+    /**
+     * 线程模式
+     */
+    @Param({"platform", "virtual"})
+    private String mode;
+    /**
+     * 每批并发执行的任务数
+     */
+    @Param({"100", "1000"})
+    private int concurrency;
+
+    /**
+     * 探测请求上游的延迟（毫秒）
+     */
+    private static final long PROBE_DELAY_MILLIS = 50;
+    /**
+     * 代理拷贝的响应体大小
+     */
+    private static final int COPY_BODY_BYTES = 256 * 1024;
+
+    private HttpServer upstream;
+    private OkHttpClient httpClient;
+    private ExecutorService workers;
+    private String probeUrl;
+    private String copyUrl;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        ThreadFactories threadFactories = new ThreadFactories("virtual".equals(mode));
+        workers = threadFactories.newCachedPool("bench-");
+
+        byte[] body = new byte[COPY_BODY_BYTES];
+        upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        upstream.createContext("/probe", this::serveProbe);
+        upstream.createContext("/copy", exchange -> serveCopy(exchange, body));
+        upstream.setExecutor(Executors.newCachedThreadPool());
+        upstream.start();
+        String base = "http://127.0.0.1:" + upstream.getAddress().getPort();
+        probeUrl = base + "/probe";
+        copyUrl = base + "/copy";
+
+        httpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(concurrency, 1, TimeUnit.MINUTES))
+                .readTimeout(30, TimeUnit.SECONDS)
+                .build();
+    }
+
+    private void serveProbe(HttpExchange exchange) throws IOException {
+        try {
+            Thread.sleep(PROBE_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        byte[] body = "#EXTM3U\n".getBytes();
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void serveCopy(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "video/mp2t");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int off = 0; off < body.length; off += 16 * 1024) {
+                out.write(body, off, Math.min(16 * 1024, body.length - off));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workers.shutdownNow();
+        upstream.stop(0);
+        ((ExecutorService) upstream.getExecutor()).shutdownNow();
+        httpClient.connectionPool().evictAll();
+    }
+
+    @Benchmark
+    public long probe() throws Exception {
+        return runBatch(probeUrl);
+    }
+
+    @Benchmark
+    public long copy() throws Exception {
+        return runBatch(copyUrl);
+    }
+
+    /**
+     * 并发执行一批阻塞请求，等待全部完成
+     * @param url 请求地址
+     * @return 读取的总字节数
+     */
+    private long runBatch(String url) throws Exception {
+        List<Future<Long>> futures = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            futures.add(workers.submit(() -> fetch(url)));
+        }
+        long total = 0;
+        for (Future<Long> future : futures) {
+            total += future.get();
+        }
+        return total;
+    }
+
+    private long fetch(String url) throws IOException {
+        Request request = new Request.Builder().url(url).get().build();
+        try (Response resp = httpClient.newCall(request).execute()) {
+            ResponseBody body = resp.body();
+            if (body == null) {
+                return 0;
+            }
+            byte[] buf = new byte[16 * 1024];
+            long read = 0;
+            try (InputStream in = body.byteStream()) {
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    read += n;
+                }
+            }
+            return read;
+        }
+    }
+}
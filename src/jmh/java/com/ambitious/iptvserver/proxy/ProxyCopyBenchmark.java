@@ -0,0 +1,190 @@
+package com.ambitious.iptvserver.proxy;
+
+import com.ambitious.iptvserver.config.ProxyProperties;
+import com.ambitious.iptvserver.config.ThreadFactories;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 代理转发的开销：本地的 JDK HttpServer 作为上游，输出固定长度或者分块传输的 TS 数据，
+ * 经过 {@link IptvProxyService} 转发到一个直接丢弃数据的客户端响应，
+ * 固定长度走直接拷贝，分块传输走共享分发；
+ * 代理是异步完成的，模拟的客户端响应总是可写，每次调用等待异步请求结束
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProxyCopyBenchmark {
+
+    /**
+     * 上游响应体大小
+     */
+    @Param({"65536", "4194304"})
+    private int bodyBytes;
+    /**
+     * 上游是否使用分块传输
+     */
+    @Param({"false", "true"})
+    private boolean chunked;
+
+    private HttpServer upstream;
+    private OkHttpClient httpClient;
+    private IptvProxyService proxyService;
+    private String url;
+    /**
+     * 每次请求使用不同的地址，避免并发的请求加入同一个共享频道
+     */
+    private final AtomicLong requestSeq = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        byte[] body = new byte[bodyBytes];
+        // 每 188 字节一个 TS 同步字节
+        for (int i = 0; i < body.length; i += 188) {
+            body[i] = 0x47;
+        }
+        upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        upstream.createContext("/live", exchange -> serve(exchange, body));
+        upstream.setExecutor(Executors.newCachedThreadPool());
+        upstream.start();
+        url = "http://127.0.0.1:" + upstream.getAddress().getPort() + "/live/" + bodyBytes + "?chunked=" + chunked;
+
+        httpClient = new OkHttpClient();
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ProxyProperties proxyProperties = new ProxyProperties();
+        SegmentCache segmentCache = new SegmentCache();
+        ReflectionTestUtils.setField(segmentCache, "proxyProperties", proxyProperties);
+        ReflectionTestUtils.setField(segmentCache, "meterRegistry", meterRegistry);
+        segmentCache.afterPropertiesSet();
+        StreamHub streamHub = new StreamHub();
+        ReflectionTestUtils.setField(streamHub, "proxyProperties", proxyProperties);
+        ReflectionTestUtils.setField(streamHub, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(streamHub, "threadFactories", new ThreadFactories(false));
+        streamHub.afterPropertiesSet();
+        proxyService = new IptvProxyService();
+        ReflectionTestUtils.setField(proxyService, "httpClient", httpClient);
+        ReflectionTestUtils.setField(proxyService, "proxyProperties", proxyProperties);
+        ReflectionTestUtils.setField(proxyService, "segmentCache", segmentCache);
+        ReflectionTestUtils.setField(proxyService, "streamHub", streamHub);
+        ReflectionTestUtils.setField(proxyService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(proxyService, "threadFactories", new ThreadFactories(false));
+        proxyService.afterPropertiesSet();
+    }
+
+    private void serve(HttpExchange exchange, byte[] body) throws IOException {
+        boolean useChunked = exchange.getRequestURI().getQuery().contains("chunked=true");
+        exchange.getResponseHeaders().add("Content-Type", "video/mp2t");
+        exchange.sendResponseHeaders(200, useChunked ? 0 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (useChunked) {
+                // 分多次写入，模拟持续输出的直播流
+                for (int off = 0; off < body.length; off += 16 * 1024) {
+                    out.write(body, off, Math.min(16 * 1024, body.length - off));
+                }
+            } else {
+                out.write(body);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        upstream.stop(0);
+        proxyService.destroy();
+        httpClient.dispatcher().executorService().shutdown();
+        httpClient.connectionPool().evictAll();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long proxy() {
+        DiscardResponse response = new DiscardResponse();
+        MockHttpServletRequest request = new MockHttpServletRequest() {
+            @Override
+            public AsyncContext startAsync() {
+                return startAsync(this, response);
+            }
+        };
+        request.setAsyncSupported(true);
+        proxyService.proxy(url + "&seq=" + requestSeq.incrementAndGet(), false, request);
+        while (request.isAsyncStarted()) {
+            LockSupport.parkNanos(10_000);
+        }
+        return response.written;
+    }
+
+    /**
+     * 直接丢弃写入数据的客户端响应，只统计字节数
+     */
+    private static class DiscardResponse extends MockHttpServletResponse {
+
+        private long written;
+        private final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                // 总是可写，直接开始写入
+                try {
+                    writeListener.onWritePossible();
+                } catch (IOException e) {
+                    writeListener.onError(e);
+                }
+            }
+
+            @Override
+            public void write(int b) {
+                written++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                written += len;
+            }
+        };
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return out;
+        }
+    }
+}
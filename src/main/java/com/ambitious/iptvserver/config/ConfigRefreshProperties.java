@@ -0,0 +1,33 @@
+package com.ambitious.iptvserver.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 直播源配置自动刷新相关配置
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Configuration
+@ConfigurationProperties(prefix = "iptv.refresh")
+@Data
+public class ConfigRefreshProperties {
+
+    /**
+     * 是否定时自动刷新直播源配置
+     */
+    private boolean enabled = true;
+    /**
+     * 自动刷新的间隔（秒）
+     */
+    private int intervalSeconds = 60;
+    /**
+     * 读取单个配置来源的超时时间（秒），超时的来源沿用上一次读取成功的内容
+     */
+    private int fetchTimeoutSeconds = 10;
+    /**
+     * 每个配置来源最近一次成功应用的内容（包括电视台信息）保存到本地的路径，启动时优先从这里加载，为空表示不保存
+     */
+    private String snapshotFile = "data/iptv-servers.yml";
+}
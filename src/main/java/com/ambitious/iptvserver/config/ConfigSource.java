@@ -0,0 +1,87 @@
+package com.ambitious.iptvserver.config;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 直播源配置文件的来源，可以是远程地址，也可以是本地文件
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public interface ConfigSource {
+
+    /**
+     * 配置来源的名称，用于日志
+     */
+    String getName();
+
+    /**
+     * 读取配置文件，边读取边解析，不把整个文件读到内存中
+     * @param parser 配置解析器
+     * @return 配置内容，没有变化时返回空
+     */
+    <T> Content<T> fetch(Parser<T> parser) throws IOException;
+
+    /**
+     * 配置成功应用后记录它的校验信息，下一次读取时用于判断是否变化
+     * @param content 已经应用的配置内容
+     */
+    void accept(Content<?> content);
+
+    /**
+     * 从输入流中解析配置，同时计算内容的 SHA-256
+     * @param in 输入流，不负责关闭
+     * @param parser 配置解析器
+     * @param etag ETag
+     * @param lastModified 修改时间
+     * @return 配置内容
+     */
+    static <T> Content<T> parse(InputStream in, Parser<T> parser, String etag, String lastModified) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        DigestInputStream digestIn = new DigestInputStream(in, digest);
+        T parsed = parser.parse(digestIn);
+        // 解析器可能没有读到末尾，剩下的内容也要计入哈希
+        ByteStreams.exhaust(digestIn);
+        String hash = BaseEncoding.base16().lowerCase().encode(digest.digest());
+        return new Content<>(parsed, etag, lastModified, hash);
+    }
+
+    /**
+     * 配置解析器
+     */
+    @FunctionalInterface
+    interface Parser<T> {
+
+        /**
+         * 解析配置
+         * @param in 输入流，不需要关闭
+         * @return 解析结果
+         */
+        T parse(InputStream in) throws IOException;
+    }
+
+    /**
+     * 读取到的配置内容的解析结果以及校验信息
+     */
+    @Getter
+    @AllArgsConstructor
+    class Content<T> {
+        private final T parsed;
+        private final String etag;
+        private final String lastModified;
+        private final String hash;
+    }
+}
@@ -0,0 +1,39 @@
+package com.ambitious.iptvserver.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * 节目单（XMLTV）相关配置
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Configuration
+@ConfigurationProperties(prefix = "iptv.epg")
+@Data
+public class EpgProperties {
+
+    /**
+     * XMLTV 文件地址，可以是远程地址或者本地文件路径，支持 .gz 压缩文件，为空表示不加载节目单
+     */
+    private List<String> sources;
+    /**
+     * 重新加载节目单的间隔（分钟）
+     */
+    private int refreshMinutes = 360;
+    /**
+     * 保留多少小时以前的节目
+     */
+    private int retainPastHours = 6;
+    /**
+     * 保留多少小时以后的节目
+     */
+    private int retainFutureHours = 48;
+    /**
+     * 下载节目单时两次读取之间的最长间隔（秒），整个下载过程不限时长
+     */
+    private int readTimeoutSeconds = 60;
+}
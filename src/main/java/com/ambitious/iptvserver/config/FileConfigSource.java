@@ -0,0 +1,55 @@
+package com.ambitious.iptvserver.config;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * 本地配置文件，修改时间以及内容的哈希都没有变化时视为未变化
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Slf4j
+public class FileConfigSource implements ConfigSource {
+
+    private final Path path;
+    private volatile String lastModified;
+    private volatile String contentHash;
+
+    public FileConfigSource(String path) {
+        this.path = Paths.get(path);
+    }
+
+    @Override
+    public String getName() {
+        return path.toString();
+    }
+
+    @Override
+    public <T> Content<T> fetch(Parser<T> parser) throws IOException {
+        String modified = String.valueOf(Files.getLastModifiedTime(path).toMillis());
+        if (modified.equals(lastModified)) {
+            return null;
+        }
+        Content<T> content;
+        try (InputStream in = Files.newInputStream(path)) {
+            content = ConfigSource.parse(in, parser, null, modified);
+        }
+        if (content.getHash().equals(contentHash)) {
+            accept(content);
+            log.debug("本地配置内容未变化：{}", path);
+            return null;
+        }
+        return content;
+    }
+
+    @Override
+    public void accept(Content<?> content) {
+        this.lastModified = content.getLastModified();
+        this.contentHash = content.getHash();
+    }
+}
@@ -0,0 +1,75 @@
+package com.ambitious.iptvserver.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * okhttp 请求客户端配置，按用途分为三类：
+ * 读取远程配置、探测直播源、代理直播源，互相之间不共享连接池和并发额度
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Configuration
+@ConfigurationProperties(prefix = "iptv.http")
+@Data
+public class HttpClientProperties {
+
+    /**
+     * 读取远程配置：请求少，失败时重试
+     */
+    private Profile config = new Profile(5000, 10000, 30000, 2, 60, 8, 4, 2, false);
+    /**
+     * 探测直播源：超时短，并发高
+     */
+    private Profile probe = new Profile(3000, 5000, 15000, 16, 30, 128, 16, 0, false);
+    /**
+     * 代理直播源：读取超时长，保持更多的空闲连接
+     */
+    private Profile proxy = new Profile(5000, 30000, 0, 64, 300, 512, 64, 0, false);
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Profile {
+
+        /**
+         * 连接超时（毫秒），0 表示不限制
+         */
+        private int connectTimeoutMillis;
+        /**
+         * 读取超时（毫秒），0 表示不限制
+         */
+        private int readTimeoutMillis;
+        /**
+         * 整个请求的超时（毫秒），0 表示不限制
+         */
+        private int callTimeoutMillis;
+        /**
+         * 连接池最多保留的空闲连接数
+         */
+        private int maxIdleConnections;
+        /**
+         * 空闲连接的保活时间（秒）
+         */
+        private int keepAliveSeconds;
+        /**
+         * 最大并发请求数
+         */
+        private int maxRequests;
+        /**
+         * 同一主机的最大并发请求数
+         */
+        private int maxRequestsPerHost;
+        /**
+         * 请求失败（IO 异常或 5xx）时的重试次数
+         */
+        private int retries;
+        /**
+         * 是否允许使用 HTTP/2
+         */
+        private boolean http2;
+    }
+}
@@ -1,17 +1,25 @@
 package com.ambitious.iptvserver.config;
 
+import cn.hutool.core.util.StrUtil;
+import com.ambitious.iptvserver.entity.ChannelMeta;
 import com.ambitious.iptvserver.entity.ServerInfo;
 import com.ambitious.iptvserver.entity.ServerProxy;
+import com.ambitious.iptvserver.entity.ServersSnapshot;
 import com.ambitious.iptvserver.util.CastUtils;
+import com.ambitious.iptvserver.util.M3u8Utils;
+import com.ambitious.iptvserver.util.M3uParser;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Headers;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
-import okhttp3.ResponseBody;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
@@ -20,17 +28,24 @@ import org.springframework.web.client.RestTemplate;
 import org.yaml.snakeyaml.Yaml;
 
 import javax.annotation.Resource;
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * 处理 Iptv 相关配置
@@ -41,58 +56,106 @@ import java.util.stream.Collectors;
 @ConfigurationProperties(prefix = "iptv")
 @Data
 @Slf4j
-public class IptvConfig implements InitializingBean {
+public class IptvConfig implements InitializingBean, DisposableBean {
 
     /**
      * 远程的 iptv 服务器列表配置链接
      */
     private String serverConfigUrl;
+    /**
+     * 多个直播源配置来源，可以是远程地址或者本地文件路径，
+     * 排在前面的优先级更高，同一个电视台以优先级高的来源为准，为空时只使用 serverConfigUrl
+     */
+    private List<String> serverConfigSources;
     /**
      * 直播源代理配置
      */
     private List<ServerProxy> proxies;
     /**
-     * 静态的直播源代理配置
+     * 编译好的代理规则，配置加载时整体替换
      */
-    private static List<ServerProxy> staticProxies;
+    private static volatile ProxyRuleIndex proxyRules = ProxyRuleIndex.EMPTY;
+    @Resource
+    private OkHttpClient httpClient;
+    @Resource
+    private ConfigRefreshProperties refreshProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private ThreadFactories threadFactories;
     /**
-     * 需要代理的直播源 host
+     * 保证同一时间只有一次刷新，等待时间会记录到监控指标中
      */
-    private static Set<String> proxyHosts;
+    private final ReentrantLock refreshLock = new ReentrantLock();
     /**
-     * 用于匹配出 url 中的主机名的正则表达式
+     * 所有的配置来源，按优先级从高到低排列
      */
-    private static final Pattern PROXY_HOST_PATTERN = Pattern.compile("https?://([^/]+)");
-    @Resource
-    private OkHttpClient httpClient;
-    private static Map<String, List<ServerInfo>> SERVERS_MAP = Maps.newHashMap();
+    private List<ConfigSource> configSources;
     /**
-     * 用于刷新直播源数据时进行线程同步
+     * 每个配置来源最近一次成功应用的内容，读取失败或超时的来源沿用这份内容，
+     * 同时保存到本地快照中，重启后从快照恢复
      */
-    public static final ReentrantReadWriteLock SERVERS_LOCK = new ReentrantReadWriteLock();
+    private final Map<ConfigSource, FetchedConfig> lastGoodConfigs = Maps.newConcurrentMap();
+    /**
+     * 并行读取配置来源
+     */
+    private ExecutorService fetchExecutor;
+    /**
+     * 当前的直播源快照，读取无需加锁，修改时整体替换
+     */
+    private static final AtomicReference<ServersSnapshot> SERVERS = new AtomicReference<>(ServersSnapshot.EMPTY);
+    /**
+     * 判断配置格式时预读的字节数
+     */
+    private static final int PLAYLIST_SNIFF_BYTES = 64;
+    /**
+     * 本地快照的格式版本，旧版本的快照只保存了合并后的直播源
+     */
+    private static final int SNAPSHOT_FORMAT = 2;
 
     /**
-     * 获取一个读取直播源的读锁
-     * @return 读锁
+     * 获取当前的直播源快照
+     * @return 快照
      */
-    public static Lock getServersReadLock() {
-        return SERVERS_LOCK.readLock();
+    public static ServersSnapshot getSnapshot() {
+        return SERVERS.get();
     }
 
-    public static Lock getServersWriteLock() {
-        return SERVERS_LOCK.writeLock();
+    /**
+     * 直接替换当前的直播源快照，包内可见，基准测试中用来准备数据
+     * @param snapshot 新快照
+     */
+    static void setSnapshot(ServersSnapshot snapshot) {
+        SERVERS.set(snapshot);
     }
 
     /**
-     * 依据直播源评分重新排序
+     * 依据直播源评分重新排序，排好序的列表以新快照的形式发布，读者不会看到排序中途的列表
      * @param tvKey 直播源 key
      */
     public static void reSort(String tvKey) {
-        List<ServerInfo> servers = getServers(tvKey);
-        if (servers == null || servers.isEmpty()) {
-            return;
+        SERVERS.updateAndGet(snapshot -> {
+            List<ServerInfo> servers = snapshot.get(tvKey);
+            if (servers == null || servers.isEmpty()) {
+                return snapshot;
+            }
+            return snapshot.with(tvKey, sortByScore(servers));
+        });
+    }
+
+    /**
+     * 按评分从高到低排序，先固定每个直播源的评分再排序，避免排序过程中评分被并发修改
+     * @param servers 直播源列表
+     * @return 排好序的新列表
+     */
+    private static List<ServerInfo> sortByScore(List<ServerInfo> servers) {
+        Map<ServerInfo, Double> scores = Maps.newIdentityHashMap();
+        for (ServerInfo server : servers) {
+            scores.put(server, server.getScore());
         }
-        servers.sort((s1, s2) -> s2.getSuccessRate().compareTo(s1.getSuccessRate()));
+        List<ServerInfo> sorted = Lists.newArrayList(servers);
+        sorted.sort((s1, s2) -> scores.get(s2).compareTo(scores.get(s1)));
+        return sorted;
     }
 
     /**
@@ -100,63 +163,50 @@ public class IptvConfig implements InitializingBean {
      * @return 所有 key
      */
     public static List<String> getAllTypes() {
-        Lock lock = getServersReadLock();
-        lock.lock();
-        try {
-            return Lists.newArrayList(SERVERS_MAP.keySet());
-        } finally {
-            lock.unlock();
-        }
+        return Lists.newArrayList(SERVERS.get().getServers().keySet());
     }
 
     /**
-     * 根据电视台名称从 SERVERS_MAP 中获取对应电视台的直播源列表
+     * 根据电视台名称从快照中获取对应电视台的直播源列表
      * @param tvName 电视台名称
-     * @return 直播源列表，如果不存在该电视台的配置，就返回空
+     * @return 不可修改的直播源列表，如果不存在该电视台的配置，就返回空
      */
     public static List<ServerInfo> getServers(String tvName) {
-        Lock lock = getServersReadLock();
-        lock.lock();
-        try {
-            return SERVERS_MAP.get(tvName);
-        } finally {
-            lock.unlock();
-        }
+        return SERVERS.get().get(tvName);
     }
 
     /**
-     * 读取远程的 yml 配置文件，将数据源预处理成一个 HashMap
+     * 加载直播源配置：
+     * 本地有上一次成功应用的快照时直接加载，立即可用，再在后台刷新远程配置；
+     * 没有快照时同步读取所有配置来源
      */
     @Override
     public void afterPropertiesSet() {
-        Map<String, Object> rawMap = readConfigAsMap();
-        formatServersMap(rawMap);
-        initProxyHosts();
-        staticProxies = this.proxies;
+        initProxies(this.proxies);
+        configSources = buildConfigSources();
+        fetchExecutor = threadFactories.newCachedPool("config-fetch-");
+        if (loadLocalSnapshot()) {
+            log.info("已从本地快照加载直播源配置，在后台刷新远程配置");
+            fetchExecutor.execute(this::refreshServers);
+            return;
+        }
+        if (!refreshServers()) {
+            throw new RuntimeException("读取直播源配置失败");
+        }
+    }
+
+    @Override
+    public void destroy() {
+        fetchExecutor.shutdownNow();
     }
 
     /**
      * 获取一个直播源的代理请求头
      * @param url url
+     * @return 预先构建好的请求头，不需要代理时返回空的请求头
      */
-    public static Map<String, String> getProxyHeaders(String url) {
-        Map<String, String> res = Maps.newHashMap();
-        for (ServerProxy serverProxy : staticProxies) {
-            String host = serverProxy.getHost();
-            Matcher matcher = PROXY_HOST_PATTERN.matcher(url);
-            if (!matcher.find() || !matcher.group(1).equals(host)) {
-                continue;
-            }
-            List<String> headers = serverProxy.getHeaders();
-            for (String header : headers) {
-                String[] kvs = header.split("\\|");
-                if (kvs.length != 2) {
-                    throw new RuntimeException("代理请求头配置错误：" + header + "，请使用 | 分割 key value");
-                }
-                res.put(kvs[0], kvs[1]);
-            }
-        }
-        return res;
+    public static Headers getProxyHeaders(String url) {
+        return proxyRules.headersFor(url);
     }
 
     /**
@@ -165,108 +215,471 @@ public class IptvConfig implements InitializingBean {
      * @return 是否需要代理
      */
     public static boolean checkNeedProxy(String url) {
-        // 解析主机名
-        Matcher matcher = PROXY_HOST_PATTERN.matcher(url);
-        if (matcher.find()) {
-            return proxyHosts.contains(matcher.group(1));
-        }
-        return proxyHosts.contains(url);
+        return proxyRules.matches(url);
     }
 
     /**
-     * 初始化需要进行代理的直播源主机集合
+     * 编译代理配置，包内可见，基准测试中直接调用
+     * @param proxies 代理配置
      */
-    private void initProxyHosts() {
-        proxyHosts = Sets.newHashSet();
-        for (ServerProxy serverProxy : proxies) {
-            proxyHosts.add(serverProxy.getHost());
-        }
+    static void initProxies(List<ServerProxy> proxies) {
+        proxyRules = ProxyRuleIndex.compile(proxies);
     }
 
     /**
-     * 刷新直播源数据
+     * 刷新直播源数据：
+     * 并行读取所有配置来源，所有来源都没有变化时直接跳过，不重新解析；
+     * 有变化时按优先级合并，只新增、移除发生变化的直播源，没变的直播源沿用原来的对象以及探测状态，
+     * 构建好新的快照后整体替换，刷新之间互相排队，不会因为读取中的请求而失败
      * @return 是否刷新成功
      */
     public boolean refreshServers() {
-        if (SERVERS_LOCK.getReadLockCount() > 0) {
-            return false;
+        long waitStart = System.nanoTime();
+        refreshLock.lock();
+        long start = System.nanoTime();
+        String outcome = "failed";
+        try {
+            Timer.builder("iptv.config.refresh.lock.wait")
+                    .description("等待配置刷新锁的时间")
+                    .register(meterRegistry)
+                    .record(start - waitStart, TimeUnit.NANOSECONDS);
+            outcome = doRefreshServers();
+            return !"failed".equals(outcome);
+        } finally {
+            refreshLock.unlock();
+            Timer.builder("iptv.config.refresh")
+                    .description("刷新直播源配置的耗时")
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
-        Lock lock = getServersWriteLock();
-        lock.lock();
+    }
+
+    /**
+     * 执行一次刷新：所有配置来源都读取失败时刷新失败，当前的快照保持不变；
+     * 已经有可用的快照时，只要有来源读取失败并且没有上一次成功的内容，也不发布合并结果，
+     * 避免这个来源的电视台从快照以及本地快照中丢失
+     * @return changed：直播源发生变化，unchanged：没有变化，failed：刷新失败
+     */
+    private String doRefreshServers() {
         try {
-            Map<String, List<ServerInfo>> oldMap = SERVERS_MAP;
-            SERVERS_MAP = Maps.newHashMap();
-            formatServersMap(readConfigAsMap());
-            // 对比 newMap，如果 oldMap 中存在一样的直播源，则拷贝得分数据
-            for (String tvKey : SERVERS_MAP.keySet()) {
-                if (!oldMap.containsKey(tvKey)) {
-                    continue;
-                }
-                Set<ServerInfo> olds = Sets.newHashSet(oldMap.get(tvKey));
-                Map<String, List<ServerInfo>> oldUrlMap = oldMap.get(tvKey).stream().collect(Collectors.groupingBy(ServerInfo::getUrl));
-                List<ServerInfo> newServers = SERVERS_MAP.get(tvKey);
-                for (ServerInfo newServer : newServers) {
-                    if (olds.contains(newServer)) {
-                        String url = newServer.getUrl();
-                        ServerInfo oldInfo = oldUrlMap.get(url).get(0);
-                        newServer.setRequestSuccessNum(oldInfo.getRequestSuccessNum());
-                        newServer.setSuccessRate(oldInfo.getSuccessRate());
-                        newServer.setRequestTotalNum(oldInfo.getRequestTotalNum());
+            Map<ConfigSource, FetchResult> results = fetchAll();
+            Map<ConfigSource, FetchedConfig> fetched = Maps.newLinkedHashMap();
+            List<String> missing = Lists.newArrayList();
+            int failed = 0;
+            for (Map.Entry<ConfigSource, FetchResult> entry : results.entrySet()) {
+                FetchResult result = entry.getValue();
+                if (result.status == FetchStatus.OK) {
+                    fetched.put(entry.getKey(), result.config);
+                } else if (result.status == FetchStatus.FAILED) {
+                    failed++;
+                    if (!lastGoodConfigs.containsKey(entry.getKey())) {
+                        missing.add(entry.getKey().getName());
                     }
                 }
             }
-            return true;
+            if (failed == results.size()) {
+                if (SERVERS.get().getServers().isEmpty()) {
+                    log.error("所有配置来源都读取失败，没有可用的直播源配置");
+                } else {
+                    log.error("所有配置来源都读取失败，沿用当前的直播源配置");
+                }
+                return "failed";
+            }
+            if (!missing.isEmpty() && !SERVERS.get().getServers().isEmpty()) {
+                log.error("配置来源读取失败并且没有上一次成功的内容，沿用当前的直播源配置：{}", missing);
+                return "failed";
+            }
+            if (fetched.isEmpty()) {
+                log.debug("直播源配置没有变化，跳过刷新");
+                return "unchanged";
+            }
+            String outcome = "unchanged";
+            Map<String, Object> merged = mergeConfigs(fetched);
+            Map<String, ChannelMeta> channels = mergeChannels(fetched, merged);
+            ServersSnapshot oldSnapshot = SERVERS.get();
+            Map<String, List<ServerInfo>> newMap = formatServersMap(merged, oldSnapshot);
+            if (!sameServers(oldSnapshot, newMap) || !oldSnapshot.getChannels().equals(channels)) {
+                newMap.replaceAll((tvKey, servers) -> sortByScore(servers));
+                SERVERS.set(new ServersSnapshot(oldSnapshot.getVersion() + 1, newMap, channels));
+                outcome = "changed";
+            } else {
+                log.info("直播源配置中的直播源没有变化");
+            }
+            // 应用成功后才记录校验信息，失败时下一次还会重新读取
+            fetched.forEach((source, config) -> {
+                source.accept(config.content);
+                lastGoodConfigs.put(source, config);
+            });
+            saveLocalSnapshot();
+            return outcome;
         } catch (Exception e) {
             log.error("更新直播源数据失败：{}", e.getMessage());
+            return "failed";
+        }
+    }
+
+    /**
+     * 并行读取所有配置来源，每个来源都有超时时间，读取失败或超时的来源沿用上一次的内容
+     * @return 配置来源 => 读取结果，按优先级从高到低排列
+     */
+    private Map<ConfigSource, FetchResult> fetchAll() {
+        List<Future<ConfigSource.Content<ParsedConfig>>> futures = Lists.newArrayList();
+        for (ConfigSource source : configSources) {
+            futures.add(fetchExecutor.submit(() -> source.fetch(in -> parseConfig(source, in))));
+        }
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(refreshProperties.getFetchTimeoutSeconds());
+        Map<ConfigSource, FetchResult> results = Maps.newLinkedHashMap();
+        for (int i = 0; i < configSources.size(); i++) {
+            ConfigSource source = configSources.get(i);
+            Future<ConfigSource.Content<ParsedConfig>> future = futures.get(i);
+            FetchResult result = FetchResult.FAILED;
+            try {
+                ConfigSource.Content<ParsedConfig> content = future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                result = content == null
+                        ? FetchResult.NOT_MODIFIED
+                        : new FetchResult(FetchStatus.OK, new FetchedConfig(content, content.getParsed()));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                log.warn("读取配置来源超时，沿用上一次的内容：{}", source.getName());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("读取配置被中断");
+            } catch (Exception e) {
+                log.warn("读取配置来源失败，沿用上一次的内容：{}，{}", source.getName(), e.getMessage());
+            }
+            results.put(source, result);
+        }
+        return results;
+    }
+
+    /**
+     * 按优先级合并所有配置来源，同一个电视台以优先级高的来源为准
+     * @param fetched 发生变化的配置来源 => 新的内容
+     * @return 合并后的配置
+     */
+    private Map<String, Object> mergeConfigs(Map<ConfigSource, FetchedConfig> fetched) {
+        Map<String, Object> merged = Maps.newLinkedHashMap();
+        for (int i = configSources.size() - 1; i >= 0; i--) {
+            ConfigSource source = configSources.get(i);
+            ParsedConfig parsed = parsedOf(source, fetched);
+            if (parsed != null) {
+                merged.putAll(parsed.rawMap);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * 按优先级合并所有配置来源中的电视台信息，只保留合并后仍然存在的电视台
+     * @param fetched 发生变化的配置来源 => 新的内容
+     * @param merged 合并后的配置
+     * @return 电视台 key => 电视台信息
+     */
+    private Map<String, ChannelMeta> mergeChannels(Map<ConfigSource, FetchedConfig> fetched, Map<String, Object> merged) {
+        Map<String, ChannelMeta> channels = Maps.newLinkedHashMap();
+        for (int i = configSources.size() - 1; i >= 0; i--) {
+            ParsedConfig parsed = parsedOf(configSources.get(i), fetched);
+            if (parsed != null) {
+                channels.putAll(parsed.channels);
+            }
+        }
+        channels.keySet().retainAll(merged.keySet());
+        return channels;
+    }
+
+    private ParsedConfig parsedOf(ConfigSource source, Map<ConfigSource, FetchedConfig> fetched) {
+        FetchedConfig config = fetched.containsKey(source) ? fetched.get(source) : lastGoodConfigs.get(source);
+        return config != null ? config.parsed : null;
+    }
+
+    /**
+     * 判断新的直播源数据与旧快照是否一致，
+     * 没变的直播源沿用了旧对象，所以只需要比较电视台以及每个列表中的对象
+     * @param oldSnapshot 旧快照
+     * @param newMap 新的直播源数据
+     * @return 是否一致
+     */
+    private boolean sameServers(ServersSnapshot oldSnapshot, Map<String, List<ServerInfo>> newMap) {
+        Map<String, List<ServerInfo>> oldMap = oldSnapshot.getServers();
+        if (!oldMap.keySet().equals(newMap.keySet())) {
             return false;
-        } finally {
-            lock.unlock();
         }
+        for (Map.Entry<String, List<ServerInfo>> entry : newMap.entrySet()) {
+            List<ServerInfo> olds = oldMap.get(entry.getKey());
+            if (olds.size() != entry.getValue().size()) {
+                return false;
+            }
+            Set<ServerInfo> oldSet = Sets.newIdentityHashSet();
+            oldSet.addAll(olds);
+            if (!oldSet.containsAll(entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * 将 rawMap 转化为 serversMap
-     * @param rawMap 通过 SnakeYml 读取到的原始 map
+     * 将 rawMap 转化为 serversMap，旧快照中同一个电视台下已经存在的直播源直接沿用旧对象，
+     * 同一个电视台下重复的直播源只保留一个
+     * @param rawMap 通过 SnakeYml 或者 M3U 解析得到的原始 map
+     * @param oldSnapshot 旧快照
+     * @return 电视台 key => 直播源列表
      */
-    private void formatServersMap(Map<String, Object> rawMap) {
+    static Map<String, List<ServerInfo>> formatServersMap(Map<String, Object> rawMap, ServersSnapshot oldSnapshot) {
         String errorMsgPrefix = "远程配置文件读取转换异常 ==> ";
         if (rawMap == null || rawMap.isEmpty()) {
             throw new RuntimeException(errorMsgPrefix + "远程配置为空");
         }
+        Map<String, List<ServerInfo>> serversMap = Maps.newLinkedHashMap();
+        int added = 0, kept = 0;
         for (String tvName : rawMap.keySet()) {
             List<String> servers = CastUtils.cast(rawMap.get(tvName));
             if (servers == null || servers.isEmpty()) {
                 throw new RuntimeException(errorMsgPrefix + "电视台 " + tvName + " 的直播源数据列表为空");
             }
-            SERVERS_MAP.put(tvName, servers.stream().map(ServerInfo::new).collect(Collectors.toList()));
+            Map<String, ServerInfo> olds = Maps.newHashMap();
+            List<ServerInfo> oldList = oldSnapshot.get(tvName);
+            if (oldList != null) {
+                oldList.forEach(old -> olds.putIfAbsent(old.getUrl(), old));
+            }
+            Map<String, ServerInfo> infos = Maps.newLinkedHashMap();
+            for (String url : servers) {
+                if (infos.containsKey(url)) {
+                    continue;
+                }
+                ServerInfo old = olds.get(url);
+                if (old != null) {
+                    kept++;
+                } else {
+                    added++;
+                }
+                infos.put(url, old != null ? old : new ServerInfo(url));
+            }
+            serversMap.put(tvName, Lists.newArrayList(infos.values()));
         }
-        log.info("远程配置文件转换成功");
-        log.info(SERVERS_MAP.toString());
+        int total = oldSnapshot.getServers().values().stream().mapToInt(List::size).sum();
+        log.info("配置文件转换成功，电视台：{}，新增直播源：{}，保留直播源：{}，移除直播源：{}",
+                serversMap.size(), added, kept, total - kept);
+        return serversMap;
     }
 
     /**
-     * 读取远程 yml 文件，使用 SnakeYml 库加载成初始的 HashMap
-     * @return rawHashMap
+     * 从输入流中解析配置内容：以 #EXTM3U 开头的按 M3U 直播源列表逐行解析，
+     * 其他的使用 SnakeYml 库加载成初始的 HashMap
+     * @param source 配置来源
+     * @param body 配置内容的输入流
+     * @return 解析结果
      */
-    private Map<String, Object> readConfigAsMap() {
-        Request request = new Request.Builder()
-                .url(this.serverConfigUrl)
-                .get()
-                .build();
-        try (Response response = httpClient.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("请求失败");
+    private ParsedConfig parseConfig(ConfigSource source, InputStream body) throws IOException {
+        // 只预读文件头判断格式，再从头开始解析
+        BufferedInputStream in = new BufferedInputStream(body);
+        byte[] head = new byte[PLAYLIST_SNIFF_BYTES];
+        in.mark(PLAYLIST_SNIFF_BYTES);
+        int len = ByteStreams.read(in, head, 0, head.length);
+        in.reset();
+        ParsedConfig parsed;
+        if (M3u8Utils.isPlaylist(head, len)) {
+            M3uParser.Result result = M3uParser.parse(in);
+            parsed = new ParsedConfig(result.getRawMap(), result.getChannels());
+        } else {
+            Map<String, Object> rawMap = new Yaml().load(in);
+            parsed = new ParsedConfig(rawMap, Collections.emptyMap());
+        }
+        if (parsed.rawMap == null || parsed.rawMap.isEmpty()) {
+            throw new RuntimeException("配置为空");
+        }
+        log.info("成功读取到配置文件：{}，电视台：{}", source.getName(), parsed.rawMap.size());
+        return parsed;
+    }
+
+    /**
+     * 依据配置创建所有的配置来源，http 开头的是远程地址，其他的是本地文件路径
+     * @return 配置来源，按优先级从高到低排列
+     */
+    private List<ConfigSource> buildConfigSources() {
+        List<String> locations = serverConfigSources == null || serverConfigSources.isEmpty()
+                ? Lists.newArrayList(serverConfigUrl)
+                : serverConfigSources;
+        List<ConfigSource> sources = Lists.newArrayList();
+        for (String location : locations) {
+            if (StrUtil.isBlank(location)) {
+                continue;
+            }
+            if (location.startsWith("http://") || location.startsWith("https://")) {
+                sources.add(new RemoteConfigSource(location, httpClient));
+            } else {
+                sources.add(new FileConfigSource(StrUtil.removePrefix(location, "file:")));
+            }
+        }
+        if (sources.isEmpty()) {
+            throw new RuntimeException("没有配置直播源配置来源");
+        }
+        return sources;
+    }
+
+    /**
+     * 加载本地快照并发布，快照中按配置来源保存了每个来源上一次成功应用的内容（包括电视台信息），
+     * 加载后作为各个来源的上一次成功内容，没有变化的来源在下一次刷新时不会重新应用；
+     * 旧格式的快照只有合并后的直播源，直接发布，不恢复各个来源的内容
+     * @return 是否加载成功
+     */
+    private boolean loadLocalSnapshot() {
+        if (StrUtil.isBlank(refreshProperties.getSnapshotFile())) {
+            return false;
+        }
+        Path path = Paths.get(refreshProperties.getSnapshotFile());
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            Map<String, Object> rawMap = new Yaml().load(in);
+            if (rawMap == null || rawMap.isEmpty()) {
+                return false;
             }
-            Yaml yaml = new Yaml();
-            ResponseBody body = response.body();
-            if (body == null) {
-                throw new IOException("响应体为空");
+            if (!Integer.valueOf(SNAPSHOT_FORMAT).equals(rawMap.get("format"))) {
+                SERVERS.set(new ServersSnapshot(1, formatServersMap(rawMap, ServersSnapshot.EMPTY)));
+                return true;
             }
-            Map<String, Object> rawMap = yaml.load(body.byteStream());
-            log.info("成功读取到远程的配置文件：" + rawMap.toString());
-            return rawMap;
+            Map<ConfigSource, FetchedConfig> restored = Maps.newLinkedHashMap();
+            List<Map<String, Object>> saved = CastUtils.cast(rawMap.get("sources"));
+            for (ConfigSource source : configSources) {
+                for (Map<String, Object> entry : saved) {
+                    if (source.getName().equals(entry.get("name"))) {
+                        restored.put(source, restoreConfig(entry));
+                    }
+                }
+            }
+            if (restored.isEmpty()) {
+                return false;
+            }
+            Map<String, Object> merged = mergeConfigs(restored);
+            Map<String, ChannelMeta> channels = mergeChannels(restored, merged);
+            SERVERS.set(new ServersSnapshot(1, formatServersMap(merged, ServersSnapshot.EMPTY), channels));
+            restored.forEach((source, config) -> {
+                source.accept(config.content);
+                lastGoodConfigs.put(source, config);
+            });
+            return true;
+        } catch (Exception e) {
+            log.warn("读取本地直播源快照失败：{}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static FetchedConfig restoreConfig(Map<String, Object> entry) {
+        Map<String, Object> rawMap = CastUtils.cast(entry.get("servers"));
+        Map<String, Map<String, String>> metas = CastUtils.cast(entry.get("channels"));
+        Map<String, ChannelMeta> channels = Maps.newLinkedHashMap();
+        if (metas != null) {
+            metas.forEach((tvKey, meta) -> channels.put(tvKey,
+                    new ChannelMeta(meta.get("tvgId"), meta.get("name"), meta.get("logo"), meta.get("group"))));
+        }
+        ParsedConfig parsed = new ParsedConfig(rawMap, channels);
+        ConfigSource.Content<ParsedConfig> content = new ConfigSource.Content<>(parsed,
+                (String) entry.get("etag"), (String) entry.get("lastModified"), (String) entry.get("hash"));
+        return new FetchedConfig(content, parsed);
+    }
+
+    /**
+     * 将每个配置来源上一次成功应用的内容保存到本地，先写临时文件再替换，不会留下写了一半的文件
+     */
+    private void saveLocalSnapshot() {
+        if (StrUtil.isBlank(refreshProperties.getSnapshotFile())) {
+            return;
+        }
+        List<Map<String, Object>> sources = Lists.newArrayList();
+        for (ConfigSource source : configSources) {
+            FetchedConfig config = lastGoodConfigs.get(source);
+            if (config == null) {
+                continue;
+            }
+            Map<String, Object> entry = Maps.newLinkedHashMap();
+            entry.put("name", source.getName());
+            entry.put("etag", config.content.getEtag());
+            entry.put("lastModified", config.content.getLastModified());
+            entry.put("hash", config.content.getHash());
+            entry.put("servers", config.parsed.rawMap);
+            Map<String, Map<String, String>> metas = Maps.newLinkedHashMap();
+            config.parsed.channels.forEach((tvKey, meta) -> {
+                Map<String, String> fields = Maps.newLinkedHashMap();
+                fields.put("tvgId", meta.getTvgId());
+                fields.put("name", meta.getName());
+                fields.put("logo", meta.getLogo());
+                fields.put("group", meta.getGroup());
+                metas.put(tvKey, fields);
+            });
+            entry.put("channels", metas);
+            sources.add(entry);
+        }
+        Map<String, Object> snapshot = Maps.newLinkedHashMap();
+        snapshot.put("format", SNAPSHOT_FORMAT);
+        snapshot.put("sources", sources);
+        Path path = Paths.get(refreshProperties.getSnapshotFile()).toAbsolutePath();
+        try {
+            Files.createDirectories(path.getParent());
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.write(tmp, new Yaml().dump(snapshot).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
-            throw new RuntimeException("请求远程 yml 配置失败", e);
+            log.warn("保存本地直播源快照失败：{}", e.getMessage());
         }
     }
+
+    /**
+     * 读取一个配置来源的结果状态
+     */
+    private enum FetchStatus {
+        /**
+         * 读取到了新的内容
+         */
+        OK,
+        /**
+         * 内容没有变化（304 或者哈希一致）
+         */
+        NOT_MODIFIED,
+        /**
+         * 读取失败、超时或者解析失败
+         */
+        FAILED
+    }
+
+    /**
+     * 读取一个配置来源的结果
+     */
+    @AllArgsConstructor
+    private static class FetchResult {
+        private static final FetchResult NOT_MODIFIED = new FetchResult(FetchStatus.NOT_MODIFIED, null);
+        private static final FetchResult FAILED = new FetchResult(FetchStatus.FAILED, null);
+
+        private final FetchStatus status;
+        /**
+         * 新的内容，只有读取成功时不为空
+         */
+        private final FetchedConfig config;
+    }
+
+    /**
+     * 一个配置来源新读取到的内容以及解析结果
+     */
+    @AllArgsConstructor
+    private static class FetchedConfig {
+        private final ConfigSource.Content<ParsedConfig> content;
+        private final ParsedConfig parsed;
+    }
+
+    /**
+     * 一个配置来源解析后的内容
+     */
+    @AllArgsConstructor
+    private static class ParsedConfig {
+        /**
+         * 电视台 key => 直播源地址列表
+         */
+        private final Map<String, Object> rawMap;
+        /**
+         * 电视台 key => 电视台信息
+         */
+        private final Map<String, ChannelMeta> channels;
+    }
 }
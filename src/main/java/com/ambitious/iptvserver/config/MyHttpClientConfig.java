@@ -1,24 +1,97 @@
 package com.ambitious.iptvserver.config;
 
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Protocol;
+import okhttp3.Response;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 /**
- * 配置一个全局唯一的 okhttp 请求客户端
+ * 配置 okhttp 请求客户端，按用途分为三个：
+ * httpClient 读取远程配置，probeHttpClient 探测直播源，proxyHttpClient 代理直播源
  * @author ambitious
  * @date 2023/7/8
  */
 @Configuration
 public class MyHttpClientConfig {
 
+    @Resource
+    private HttpClientProperties httpClientProperties;
+    @Resource
+    private ThreadFactories threadFactories;
+
     @Bean
     public OkHttpClient httpClient() {
-        return new OkHttpClient.Builder()
-                .protocols(Collections.singletonList(Protocol.HTTP_1_1))
-                .build();
+        return build("config", httpClientProperties.getConfig());
+    }
+
+    @Bean
+    public OkHttpClient probeHttpClient() {
+        return build("probe", httpClientProperties.getProbe());
+    }
+
+    @Bean
+    public OkHttpClient proxyHttpClient() {
+        return build("proxy", httpClientProperties.getProxy());
+    }
+
+    /**
+     * 依据配置构建一个独立连接池和调度器的客户端，
+     * 使用虚拟线程时异步请求的回调（包括代理拷贝响应体）运行在虚拟线程上
+     * @param name 客户端名称
+     * @param profile 客户端配置
+     * @return 客户端
+     */
+    private OkHttpClient build(String name, HttpClientProperties.Profile profile) {
+        Dispatcher dispatcher = threadFactories.isVirtual()
+                ? new Dispatcher(threadFactories.newCachedPool("okhttp-" + name + "-"))
+                : new Dispatcher();
+        dispatcher.setMaxRequests(profile.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(profile.getMaxRequestsPerHost());
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .protocols(profile.isHttp2()
+                        ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : Collections.singletonList(Protocol.HTTP_1_1))
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(profile.getMaxIdleConnections(), profile.getKeepAliveSeconds(), TimeUnit.SECONDS))
+                .connectTimeout(profile.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS)
+                .readTimeout(profile.getReadTimeoutMillis(), TimeUnit.MILLISECONDS)
+                .callTimeout(profile.getCallTimeoutMillis(), TimeUnit.MILLISECONDS);
+        if (profile.getRetries() > 0) {
+            builder.addInterceptor(retryInterceptor(profile.getRetries()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * 请求出现 IO 异常或者响应 5xx 时进行重试
+     * @param retries 重试次数
+     * @return 拦截器
+     */
+    private static Interceptor retryInterceptor(int retries) {
+        return chain -> {
+            IOException last = null;
+            for (int i = 0; i <= retries; i++) {
+                try {
+                    Response response = chain.proceed(chain.request());
+                    if (response.code() < 500 || i == retries) {
+                        return response;
+                    }
+                    response.close();
+                } catch (IOException e) {
+                    last = e;
+                }
+            }
+            throw last;
+        };
     }
 }
@@ -0,0 +1,30 @@
+package com.ambitious.iptvserver.config;
+
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.Resource;
+
+/**
+ * 配置内嵌的 Tomcat：使用虚拟线程时，请求由虚拟线程处理，server.tomcat.threads 的配置不再生效
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Configuration
+public class MyWebServerConfig {
+
+    @Resource
+    private ThreadFactories threadFactories;
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> tomcatExecutorCustomizer() {
+        return factory -> {
+            if (threadFactories.isVirtual()) {
+                factory.addProtocolHandlerCustomizers(
+                        handler -> handler.setExecutor(threadFactories.newCachedPool("http-vt-")));
+            }
+        };
+    }
+}
@@ -0,0 +1,78 @@
+package com.ambitious.iptvserver.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 直播源探测相关配置
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Configuration
+@ConfigurationProperties(prefix = "iptv.probe")
+@Data
+public class ProbeProperties {
+
+    /**
+     * 使用的直播源测试实现：ffmpegServerTest、simpleServerTest、hlsServerTest
+     */
+    private String serverTest = "ffmpegServerTest";
+    /**
+     * 全局最大并发探测数
+     */
+    private int threads = 16;
+    /**
+     * 同一个主机允许的最大并发探测数
+     */
+    private int perHostLimit = 4;
+    /**
+     * 单次探测的超时时间（秒）
+     */
+    private int timeoutSeconds = 20;
+    /**
+     * 探测结果的有效时长（秒），/iptv 选中的直播源超过这个时长未探测时，异步重新探测该电视台，
+     * 小于等于 0 表示不触发
+     */
+    private int staleSeconds = 300;
+    /**
+     * 所有直播源都不可用时，/iptv 请求等待重新探测结果的最长时间（毫秒）
+     */
+    private long requestWaitMillis = 3000;
+    /**
+     * 同时存活的 ffmpeg 进程数上限
+     */
+    private int ffmpegMaxProcesses = 8;
+    /**
+     * 单个 ffmpeg 进程的最长存活时间（秒），超时后强制结束
+     */
+    private int ffmpegTimeoutSeconds = 15;
+    /**
+     * 全局每秒最多发起的探测数
+     */
+    private double probesPerSecond = 2.0;
+    /**
+     * 单个直播源的最短探测间隔（秒），成功率不稳定的直播源使用
+     */
+    private int minIntervalSeconds = 120;
+    /**
+     * 单个直播源的最长探测间隔（秒），一直成功或一直失败的直播源使用
+     */
+    private int maxIntervalSeconds = 1800;
+    /**
+     * 统计电视台请求数的时间窗口（秒），请求数越多的电视台探测间隔越短
+     */
+    private int demandWindowSeconds = 3600;
+    /**
+     * 提前探测请求数最多的前几个电视台
+     */
+    private int prewarmTopN = 10;
+    /**
+     * 直播源探测状态的持久化文件，启动时加载，为空表示不持久化
+     */
+    private String healthStateFile = "data/health-state.bin";
+    /**
+     * 定时保存探测状态的间隔（秒），关闭时也会保存一次
+     */
+    private int healthSaveSeconds = 300;
+}
@@ -0,0 +1,57 @@
+package com.ambitious.iptvserver.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 直播源代理转发相关配置
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Configuration
+@ConfigurationProperties(prefix = "iptv.proxy")
+@Data
+public class ProxyProperties {
+
+    /**
+     * 转发数据时使用的缓冲区大小（字节）
+     */
+    private int bufferSize = 16 * 1024;
+    /**
+     * 缓冲区池中最多保留的空闲缓冲区数量
+     */
+    private int maxPooledBuffers = 256;
+    /**
+     * 是否改写代理的 m3u8 播放列表，让分片和密钥也经过代理
+     */
+    private boolean rewritePlaylist = true;
+    /**
+     * 分片缓存的总大小上限（字节）
+     */
+    private long segmentCacheMaxBytes = 64L * 1024 * 1024;
+    /**
+     * 单个分片允许缓存的最大大小（字节），超过的分片直接流式转发
+     */
+    private int segmentCacheMaxEntryBytes = 8 * 1024 * 1024;
+    /**
+     * 分片缓存的有效时长（秒）
+     */
+    private int segmentCacheTtlSeconds = 60;
+    /**
+     * 是否让同一个持续直播流的所有观众共享一个上游连接，只对 MPEG-TS 直播流生效，其他格式直接转发
+     */
+    private boolean fanOut = true;
+    /**
+     * 共享直播流的环形缓冲区大小（字节），观众落后超过这个大小会被断开
+     */
+    private int fanOutBufferBytes = 4 * 1024 * 1024;
+    /**
+     * 等待上游数据的线程数，不能共享的代理流每次缓冲区读空后占用一个线程等待上游，收到数据后释放
+     */
+    private int upstreamReadThreads = 32;
+    /**
+     * 等待上游数据的排队上限，每个代理流最多排队一个任务，超过时断开新的等待
+     */
+    private int upstreamReadQueue = 4096;
+}
@@ -0,0 +1,408 @@
+package com.ambitious.iptvserver.config;
+
+import cn.hutool.core.util.StrUtil;
+import com.ambitious.iptvserver.entity.ServerProxy;
+import com.google.common.collect.Maps;
+import okhttp3.Headers;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 预先编译好的代理规则索引，加载配置时构建一次，之后只读：
+ * 精确主机名放在哈希表中，通配规则放在按域名标签反向排列的字典树中，
+ * 查找时直接在 url 字符串上定位主机名和端口，不创建子串，也不使用正则表达式；
+ * 支持的主机写法：
+ * example.com（精确匹配），*.example.com（只匹配子域名），.example.com（匹配域名本身以及子域名），
+ * 以上写法都可以带端口，例如 example.com:8080，不带端口时匹配任意端口
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class ProxyRuleIndex {
+
+    /**
+     * 没有匹配到规则时返回的请求头
+     */
+    private static final Headers NO_HEADERS = Headers.of();
+    /**
+     * 表示规则不限制端口
+     */
+    private static final int ANY_PORT = -1;
+    public static final ProxyRuleIndex EMPTY = compile(Collections.emptyList());
+
+    /**
+     * 精确主机名 => 规则
+     */
+    private final LabelTable<PortRules> exactHosts;
+    /**
+     * 通配规则字典树的根节点，第一层是顶级域名
+     */
+    private final Node wildcardRoot;
+
+    private ProxyRuleIndex(LabelTable<PortRules> exactHosts, Node wildcardRoot) {
+        this.exactHosts = exactHosts;
+        this.wildcardRoot = wildcardRoot;
+    }
+
+    /**
+     * 编译代理配置，主机与端口都相同的多条规则会合并请求头，后面的覆盖前面的
+     * @param proxies 代理配置
+     * @return 索引
+     */
+    public static ProxyRuleIndex compile(List<ServerProxy> proxies) {
+        Map<String, PortRulesBuilder> exact = Maps.newHashMap();
+        NodeBuilder root = new NodeBuilder();
+        if (proxies != null) {
+            for (ServerProxy proxy : proxies) {
+                addRule(proxy, exact, root);
+            }
+        }
+        Map<String, PortRules> exactRules = Maps.newHashMap();
+        exact.forEach((host, builder) -> exactRules.put(host, builder.build()));
+        return new ProxyRuleIndex(new LabelTable<>(exactRules), root.build());
+    }
+
+    private static void addRule(ServerProxy proxy, Map<String, PortRulesBuilder> exact, NodeBuilder root) {
+        String pattern = StrUtil.trim(proxy.getHost());
+        if (StrUtil.isEmpty(pattern)) {
+            throw new RuntimeException("代理配置错误：主机不能为空");
+        }
+        pattern = pattern.toLowerCase(Locale.ROOT);
+        // 拆分端口，IPv6 地址的端口在方括号之后
+        int port = ANY_PORT;
+        int colon = pattern.lastIndexOf(':');
+        if (colon > pattern.lastIndexOf(']')) {
+            port = parsePort(pattern, colon + 1, pattern.length());
+            if (port < 0) {
+                throw new RuntimeException("代理配置错误：端口无效：" + proxy.getHost());
+            }
+            pattern = pattern.substring(0, colon);
+        }
+        boolean wildcard = true;
+        boolean includeSelf = false;
+        if (pattern.startsWith("*.")) {
+            pattern = pattern.substring(2);
+        } else if (pattern.startsWith(".")) {
+            pattern = pattern.substring(1);
+            includeSelf = true;
+        } else {
+            wildcard = false;
+        }
+        if (pattern.isEmpty() || pattern.contains("*")) {
+            throw new RuntimeException("代理配置错误：不支持的通配写法：" + proxy.getHost());
+        }
+        if (!wildcard) {
+            exact.computeIfAbsent(pattern, k -> new PortRulesBuilder()).add(port, proxy);
+            return;
+        }
+        NodeBuilder node = root;
+        String[] labels = pattern.split("\\.");
+        for (int i = labels.length - 1; i >= 0; i--) {
+            node = node.children.computeIfAbsent(labels[i], k -> new NodeBuilder());
+        }
+        node.subdomains.add(port, proxy);
+        if (includeSelf) {
+            node.self.add(port, proxy);
+        }
+    }
+
+    /**
+     * 判断 url 是否命中代理规则
+     * @param url 直播源地址，也可以直接是主机名
+     * @return 是否需要代理
+     */
+    public boolean matches(String url) {
+        return lookup(url) != null;
+    }
+
+    /**
+     * 获取 url 命中的规则对应的请求头
+     * @param url 直播源地址
+     * @return 请求头，没有命中时返回空的请求头
+     */
+    public Headers headersFor(String url) {
+        Headers headers = lookup(url);
+        return headers == null ? NO_HEADERS : headers;
+    }
+
+    /**
+     * 定位 url 中的主机名和端口，精确规则优先，其次是最具体的通配规则
+     * @param url 直播源地址
+     * @return 命中规则的请求头，没有命中时返回空
+     */
+    private Headers lookup(String url) {
+        if (url == null) {
+            return null;
+        }
+        int len = url.length();
+        int schemeEnd = url.indexOf("://");
+        int start = schemeEnd < 0 ? 0 : schemeEnd + 3;
+        int end = start;
+        while (end < len) {
+            char c = url.charAt(end);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            end++;
+        }
+        // 去掉用户信息
+        for (int i = end - 1; i >= start; i--) {
+            if (url.charAt(i) == '@') {
+                start = i + 1;
+                break;
+            }
+        }
+        int hostEnd = end;
+        if (start < end && url.charAt(start) == '[') {
+            int close = url.indexOf(']', start);
+            if (close < 0 || close >= end) {
+                return null;
+            }
+            hostEnd = close + 1;
+        } else {
+            for (int i = start; i < end; i++) {
+                if (url.charAt(i) == ':') {
+                    hostEnd = i;
+                    break;
+                }
+            }
+        }
+        if (hostEnd == start) {
+            return null;
+        }
+        int port = hostEnd < end && url.charAt(hostEnd) == ':'
+                ? parsePort(url, hostEnd + 1, end)
+                : defaultPort(url, schemeEnd);
+
+        PortRules exact = exactHosts.get(url, start, hostEnd);
+        if (exact != null) {
+            Headers headers = exact.get(port);
+            if (headers != null) {
+                return headers;
+            }
+        }
+        // 从顶级域名开始逐级向下匹配，越深的规则越具体
+        Headers best = null;
+        Node node = wildcardRoot;
+        int labelEnd = hostEnd;
+        while (node.children != null) {
+            int labelStart = labelEnd;
+            while (labelStart > start && url.charAt(labelStart - 1) != '.') {
+                labelStart--;
+            }
+            Node child = node.children.get(url, labelStart, labelEnd);
+            if (child == null) {
+                break;
+            }
+            boolean whole = labelStart == start;
+            PortRules rules = whole ? child.self : child.subdomains;
+            Headers headers = rules == null ? null : rules.get(port);
+            if (headers != null) {
+                best = headers;
+            }
+            if (whole) {
+                break;
+            }
+            node = child;
+            labelEnd = labelStart - 1;
+        }
+        return best;
+    }
+
+    /**
+     * 解析端口号
+     * @return 端口号，不是合法端口时返回 -1
+     */
+    private static int parsePort(String s, int from, int to) {
+        if (from >= to || to - from > 5) {
+            return -1;
+        }
+        int port = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            port = port * 10 + (c - '0');
+        }
+        return port > 65535 ? -1 : port;
+    }
+
+    /**
+     * url 没有写端口时，按协议取默认端口
+     */
+    private static int defaultPort(String url, int schemeEnd) {
+        if (schemeEnd == 4 && url.regionMatches(true, 0, "http", 0, 4)) {
+            return 80;
+        }
+        if (schemeEnd == 5 && url.regionMatches(true, 0, "https", 0, 5)) {
+            return 443;
+        }
+        return ANY_PORT;
+    }
+
+    /**
+     * 同一个主机下按端口区分的规则
+     */
+    private static class PortRules {
+        /**
+         * 不限端口的规则
+         */
+        private final Headers anyPort;
+        private final int[] ports;
+        private final Headers[] headers;
+
+        PortRules(Headers anyPort, int[] ports, Headers[] headers) {
+            this.anyPort = anyPort;
+            this.ports = ports;
+            this.headers = headers;
+        }
+
+        /**
+         * 指定端口的规则优先，没有时使用不限端口的规则
+         */
+        Headers get(int port) {
+            for (int i = 0; i < ports.length; i++) {
+                if (ports[i] == port) {
+                    return headers[i];
+                }
+            }
+            return anyPort;
+        }
+    }
+
+    private static class PortRulesBuilder {
+        private final Map<Integer, Headers.Builder> rules = Maps.newLinkedHashMap();
+
+        void add(int port, ServerProxy proxy) {
+            Headers.Builder builder = rules.computeIfAbsent(port, k -> new Headers.Builder());
+            List<String> headers = proxy.getHeaders();
+            if (headers == null) {
+                return;
+            }
+            for (String header : headers) {
+                String[] kvs = header.split("\\|");
+                if (kvs.length != 2) {
+                    throw new RuntimeException("代理请求头配置错误：" + header + "，请使用 | 分割 key value");
+                }
+                try {
+                    builder.set(kvs[0], kvs[1]);
+                } catch (IllegalArgumentException e) {
+                    throw new RuntimeException("代理请求头配置错误：" + header + "，" + e.getMessage());
+                }
+            }
+        }
+
+        PortRules build() {
+            if (rules.isEmpty()) {
+                return null;
+            }
+            Headers.Builder any = rules.get(ANY_PORT);
+            int size = rules.size() - (any == null ? 0 : 1);
+            int[] ports = new int[size];
+            Headers[] headers = new Headers[size];
+            int i = 0;
+            for (Map.Entry<Integer, Headers.Builder> entry : rules.entrySet()) {
+                if (entry.getKey() != ANY_PORT) {
+                    ports[i] = entry.getKey();
+                    headers[i++] = entry.getValue().build();
+                }
+            }
+            return new PortRules(any == null ? null : any.build(), ports, headers);
+        }
+    }
+
+    /**
+     * 字典树节点，对应从顶级域名开始的一段域名后缀
+     */
+    private static class Node {
+        /**
+         * 下一级标签 => 子节点，没有子节点时为空
+         */
+        private final LabelTable<Node> children;
+        /**
+         * 匹配这个域名本身的规则
+         */
+        private final PortRules self;
+        /**
+         * 匹配这个域名的子域名的规则
+         */
+        private final PortRules subdomains;
+
+        Node(LabelTable<Node> children, PortRules self, PortRules subdomains) {
+            this.children = children;
+            this.self = self;
+            this.subdomains = subdomains;
+        }
+    }
+
+    private static class NodeBuilder {
+        private final Map<String, NodeBuilder> children = Maps.newHashMap();
+        private final PortRulesBuilder self = new PortRulesBuilder();
+        private final PortRulesBuilder subdomains = new PortRulesBuilder();
+
+        Node build() {
+            LabelTable<Node> table = null;
+            if (!children.isEmpty()) {
+                Map<String, Node> built = Maps.newHashMap();
+                children.forEach((label, child) -> built.put(label, child.build()));
+                table = new LabelTable<>(built);
+            }
+            return new Node(table, self.build(), subdomains.build());
+        }
+    }
+
+    /**
+     * 开放寻址的只读哈希表，可以直接用字符串中的一段查找，忽略大小写，查找时不创建子串
+     */
+    private static class LabelTable<V> {
+        private final String[] keys;
+        private final Object[] values;
+        private final int mask;
+
+        LabelTable(Map<String, V> map) {
+            // 负载不超过一半，保证探测序列很短并且一定有空位
+            int capacity = Integer.highestOneBit(Math.max(1, map.size()) * 2) * 2;
+            keys = new String[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+            map.forEach((key, value) -> {
+                String lower = key.toLowerCase(Locale.ROOT);
+                int i = hash(lower, 0, lower.length()) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = lower;
+                values[i] = value;
+            });
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(String s, int from, int to) {
+            int len = to - from;
+            for (int i = hash(s, from, to) & mask; ; i = (i + 1) & mask) {
+                String key = keys[i];
+                if (key == null) {
+                    return null;
+                }
+                if (key.length() == len && key.regionMatches(true, 0, s, from, len)) {
+                    return (V) values[i];
+                }
+            }
+        }
+
+        private static int hash(String s, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                h = 31 * h + c;
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.ambitious.iptvserver.config;
+
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+
+/**
+ * 远程配置文件，使用条件请求读取：
+ * 带上一次的 ETag / Last-Modified 请求，服务器返回 304 或者内容的哈希没有变化时视为未变化，
+ * 响应体直接交给解析器边下载边解析
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Slf4j
+public class RemoteConfigSource implements ConfigSource {
+
+    private final String url;
+    private final OkHttpClient httpClient;
+    /**
+     * 上一次成功应用的配置对应的校验信息
+     */
+    private volatile String etag;
+    private volatile String lastModified;
+    private volatile String contentHash;
+
+    public RemoteConfigSource(String url, OkHttpClient httpClient) {
+        this.url = url;
+        this.httpClient = httpClient;
+    }
+
+    @Override
+    public <T> Content<T> fetch(Parser<T> parser) throws IOException {
+        Request.Builder builder = new Request.Builder().url(url).get();
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            builder.header("If-Modified-Since", lastModified);
+        }
+        try (Response response = httpClient.newCall(builder.build()).execute()) {
+            if (response.code() == 304) {
+                log.debug("远程配置未修改：{}", url);
+                return null;
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("请求失败，状态码：" + response.code());
+            }
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("响应体为空");
+            }
+            Content<T> content = ConfigSource.parse(body.byteStream(), parser,
+                    response.header("ETag"), response.header("Last-Modified"));
+            if (content.getHash().equals(contentHash)) {
+                // 内容没变，但是服务器可能换了校验信息，更新后下次就能直接返回 304
+                accept(content);
+                log.debug("远程配置内容未变化：{}", url);
+                return null;
+            }
+            return content;
+        }
+    }
+
+    @Override
+    public void accept(Content<?> content) {
+        this.etag = content.getEtag();
+        this.lastModified = content.getLastModified();
+        this.contentHash = content.getHash();
+    }
+
+    @Override
+    public String getName() {
+        return url;
+    }
+}
@@ -0,0 +1,77 @@
+package com.ambitious.iptvserver.config;
+
+import com.ambitious.iptvserver.util.VirtualThreads;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 统一创建执行阻塞任务的线程，按配置使用虚拟线程或者普通的守护线程，
+ * 定时任务这类不会大量阻塞的线程不经过这里
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Component
+@Slf4j
+public class ThreadFactories implements InitializingBean {
+
+    @Resource
+    private ThreadProperties threadProperties;
+    private boolean virtual;
+
+    public ThreadFactories() {
+    }
+
+    public ThreadFactories(boolean virtual) {
+        this.virtual = virtual;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        virtual = threadProperties.isVirtual();
+        if (virtual && !VirtualThreads.isSupported()) {
+            log.warn("当前 JDK（{}）不支持虚拟线程，使用普通线程", System.getProperty("java.version"));
+            virtual = false;
+        }
+        if (virtual) {
+            log.info("使用虚拟线程执行请求处理、探测与代理");
+        }
+    }
+
+    /**
+     * 是否使用虚拟线程
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * 创建线程工厂
+     * @param prefix 线程名称前缀，后面跟上序号
+     * @return 线程工厂
+     */
+    public ThreadFactory newFactory(String prefix) {
+        if (virtual) {
+            return VirtualThreads.factory(prefix);
+        }
+        return new ThreadFactoryBuilder().setNameFormat(prefix + "%d").setDaemon(true).build();
+    }
+
+    /**
+     * 创建不限线程数的线程池：虚拟线程每个任务一个新线程，普通线程空闲时复用
+     * @param prefix 线程名称前缀，后面跟上序号
+     * @return 线程池
+     */
+    public ExecutorService newCachedPool(String prefix) {
+        if (virtual) {
+            return VirtualThreads.newThreadPerTaskExecutor(prefix);
+        }
+        return Executors.newCachedThreadPool(newFactory(prefix));
+    }
+}
@@ -0,0 +1,22 @@
+package com.ambitious.iptvserver.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 线程相关配置
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Configuration
+@ConfigurationProperties(prefix = "iptv.threads")
+@Data
+public class ThreadProperties {
+
+    /**
+     * 是否使用虚拟线程（需要 JDK 21 及以上）：Tomcat 请求处理、直播源探测、OkHttp 回调（包括代理拷贝）、
+     * 共享直播流的读取以及配置读取都运行在虚拟线程上；当前 JDK 不支持时退回普通线程
+     */
+    private boolean virtual = false;
+}
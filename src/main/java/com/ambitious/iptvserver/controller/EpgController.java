@@ -0,0 +1,95 @@
+package com.ambitious.iptvserver.controller;
+
+import com.ambitious.iptvserver.epg.EpgChannel;
+import com.ambitious.iptvserver.epg.EpgService;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 节目单查询
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@RestController
+public class EpgController {
+
+    @Resource
+    private EpgService epgService;
+
+    /**
+     * 查询电视台正在播出以及下一个节目
+     * @param type 电视台 key
+     */
+    @GetMapping("/epg/now")
+    public Map<String, Object> now(@RequestParam String type) {
+        EpgChannel channel = getChannel(type);
+        long now = System.currentTimeMillis();
+        Map<String, Object> res = Maps.newLinkedHashMap();
+        res.put("type", type);
+        res.put("now", programme(channel, channel.indexAt(now)));
+        res.put("next", programme(channel, channel.indexAfter(now)));
+        return res;
+    }
+
+    /**
+     * 查询电视台某个时间段内的节目
+     * @param type 电视台 key
+     * @param from 开始时间戳（毫秒），默认当前时间
+     * @param to 结束时间戳（毫秒），默认开始时间之后 24 小时
+     */
+    @GetMapping("/epg/range")
+    public List<Map<String, Object>> range(@RequestParam String type,
+                                           @RequestParam(required = false) Long from,
+                                           @RequestParam(required = false) Long to) {
+        EpgChannel channel = getChannel(type);
+        long start = from == null ? System.currentTimeMillis() : from;
+        long end = to == null ? start + TimeUnit.DAYS.toMillis(1) : to;
+        int[] range = channel.range(start, end);
+        List<Map<String, Object>> res = Lists.newArrayListWithCapacity(range[1] - range[0]);
+        for (int i = range[0]; i < range[1]; i++) {
+            res.add(programme(channel, i));
+        }
+        return res;
+    }
+
+    /**
+     * 以 XMLTV 格式输出节目单
+     * @param type 要输出的电视台，可以传多个，为空表示全部
+     */
+    @GetMapping("/epg.xml")
+    public void xmltv(@RequestParam(required = false) List<String> type, HttpServletResponse response) throws IOException, XMLStreamException {
+        response.setContentType("application/xml;charset=UTF-8");
+        epgService.writeXmltv(type, response.getOutputStream());
+    }
+
+    private EpgChannel getChannel(String type) {
+        EpgChannel channel = epgService.getChannel(type);
+        if (channel == null) {
+            throw new RuntimeException("找不到电视台 " + type + " 的节目单");
+        }
+        return channel;
+    }
+
+    private Map<String, Object> programme(EpgChannel channel, int i) {
+        if (i < 0) {
+            return null;
+        }
+        Map<String, Object> res = Maps.newLinkedHashMap();
+        res.put("title", channel.getTitle(i));
+        res.put("desc", channel.getDesc(i));
+        res.put("start", channel.getStart(i));
+        res.put("stop", channel.getStop(i));
+        return res;
+    }
+}
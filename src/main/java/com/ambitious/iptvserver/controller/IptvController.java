@@ -2,8 +2,14 @@ package com.ambitious.iptvserver.controller;
 
 import cn.hutool.core.util.StrUtil;
 import com.ambitious.iptvserver.config.IptvConfig;
+import com.ambitious.iptvserver.config.ProbeProperties;
+import com.ambitious.iptvserver.entity.BreakerState;
 import com.ambitious.iptvserver.entity.ServerInfo;
-import com.ambitious.iptvserver.job.service.ServerTest;
+import com.ambitious.iptvserver.job.service.ChannelDemandStats;
+import com.ambitious.iptvserver.job.service.ServerProbeExecutor;
+import com.ambitious.iptvserver.proxy.IptvProxyService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import kotlin.Pair;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
@@ -18,6 +24,7 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.view.RedirectView;
 
 import javax.annotation.Resource;
@@ -29,6 +36,7 @@ import java.io.InputStream;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author ambitious
@@ -40,81 +48,145 @@ public class IptvController {
 
     @Resource
     private IptvConfig iptvConfig;
-    @Resource(name = "ffmpegServerTest")
-    private ServerTest serverTest;
     @Resource
-    private OkHttpClient httpClient;
+    private ServerProbeExecutor probeExecutor;
+    @Resource
+    private ProbeProperties probeProperties;
+    @Resource
+    private IptvProxyService proxyService;
+    @Resource
+    private ChannelDemandStats demandStats;
+    @Resource
+    private MeterRegistry meterRegistry;
 
+    /**
+     * 选择直播源后重定向或者转发到代理接口：
+     * 直播源列表已经由后台探测按评分排好序，直接选出第一个最近一次探测成功的地址，
+     * 如果选中的地址探测结果已经过期，就异步重新探测这个电视台；
+     * 如果所有地址都不可用，就等待一次重新探测（并发请求共享同一次探测）后再选一次，
+     * 等待期间不占用请求线程，超过等待时间后直接用当前的探测结果再选一次
+     * @param type 电视台 key
+     * @return 视图名称
+     */
     @GetMapping("/iptv")
-    public String iptv(@RequestParam String type) {
+    public DeferredResult<String> iptv(@RequestParam String type) {
         if (StrUtil.isEmpty(type)) {
             throw new RuntimeException("type 不能为空");
         }
+        long start = System.nanoTime();
+        DeferredResult<String> result = new DeferredResult<>(probeProperties.getRequestWaitMillis());
         // 2 尝试获取直播源列表
         List<ServerInfo> servers = IptvConfig.getServers(type);
         if (servers == null || servers.isEmpty()) {
-            throw new RuntimeException("获取不到可用的直播源");
+            // 不存在的电视台统一记为 unknown，避免指标的标签无限增长
+            complete(result, "unknown", null, start);
+            return result;
         }
+        // 记录请求，热门电视台的直播源探测得更频繁
+        demandStats.record(type);
         // 3 获取一个可用的直播源
-        String server = getAvailableServer(servers, type);
+        String server = selectServer(servers, type);
+        if (server != null) {
+            complete(result, type, server, start);
+            return result;
+        }
+        result.onTimeout(() -> {
+            log.warn("电视台：{} 等待重新探测超时", type);
+            complete(result, type, reselectServer(type), start);
+        });
+        probeExecutor.submitTv(type).whenComplete((v, e) -> {
+            if (e != null) {
+                log.error("电视台：{} 重新探测异常：{}", type, e.getMessage());
+            }
+            complete(result, type, reselectServer(type), start);
+        });
+        return result;
+    }
+
+    /**
+     * 重新探测之后再选一次直播源
+     * @param tvName 电视台名称
+     * @return 可用的地址，如果都不可用，返回空
+     */
+    private String reselectServer(String tvName) {
+        String server = selectServer(IptvConfig.getServers(tvName), tvName);
+        if (server == null) {
+            log.error("电视台：{} 找不到可用直播源，请尝试更换直播源", tvName);
+        }
+        return server;
+    }
+
+    /**
+     * 返回选择结果，探测完成与等待超时可能同时发生，只有先到的一次生效
+     * @param result 异步结果
+     * @param typeTag 指标中的电视台标签
+     * @param server 选中的直播源，为空表示没有可用的直播源
+     * @param start 开始处理请求的时间
+     */
+    private void complete(DeferredResult<String> result, String typeTag, String server, long start) {
+        String outcome;
+        boolean accepted;
         if (StrUtil.isEmpty(server)) {
-            throw new RuntimeException("获取不到可用直播源");
+            outcome = "unavailable";
+            accepted = result.setErrorResult(new RuntimeException("获取不到可用的直播源"));
+        } else if (IptvConfig.checkNeedProxy(server)) {
+            // 4 执行代理
+            outcome = "proxy";
+            accepted = result.setResult("forward:/iptv/proxy?url=" + server);
+        } else {
+            outcome = "redirect";
+            accepted = result.setResult("redirect:" + server);
         }
-        // 4 执行代理
-        if (IptvConfig.checkNeedProxy(server)) {
-            return "forward:/iptv/proxy?url=" + server;
+        if (accepted) {
+            Timer.builder("iptv.select")
+                    .description("/iptv 选择直播源的耗时")
+                    .tags("type", typeTag, "outcome", outcome)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
-        return "redirect:" + server;
     }
 
+    /**
+     * 代理直播源，响应由代理服务异步写出
+     * @param url 直播源地址
+     * @param segment 是否是代理播放列表中改写出来的分片地址
+     * @param request 客户端请求
+     * @param response 客户端响应，声明这个参数表示响应由方法自己处理，不需要渲染视图
+     */
     @GetMapping("/iptv/proxy")
-    public ResponseEntity<byte[]> proxyIptv(@RequestParam String url) throws IOException {
+    public void proxyIptv(@RequestParam String url,
+                          @RequestParam(name = IptvProxyService.SEGMENT_PARAM, defaultValue = "false") boolean segment,
+                          HttpServletRequest request, HttpServletResponse response) {
         if (StrUtil.isEmpty(url)) {
             throw new RuntimeException("url 为空");
         }
-        // 1 代理请求，获取 m3u8
-        Map<String, String> proxyHeaders = IptvConfig.getProxyHeaders(url);
-        Request request = new Request.Builder()
-                .url(url)
-                .headers(Headers.of(proxyHeaders))
-                .get()
-                .build();
-        try (Response resp = httpClient.newCall(request).execute()) {
-            int code = resp.code();
-            if (code != HttpStatus.OK.value()) {
-                throw new RuntimeException("请求失败");
-            }
-            if (resp.body() == null) {
-                throw new RuntimeException("请求失败");
-            }
-            return ResponseEntity
-                    .status(code)
-                    .headers(headers -> {
-                        for (Pair<? extends String, ? extends String> pair : resp.headers()) {
-                            headers.add(pair.getFirst(), pair.getSecond());
-                        }
-                    })
-                    .body(resp.body().bytes());
-        }
+        // 代理请求，以流的方式异步转发给客户端
+        proxyService.proxy(url, segment, request);
     }
 
     /**
-     * 从直播源列表中找一个可用的地址
-     * 思路：向直播源地址发送请求，如果响应码是 200，就认为它是可用的
+     * 按排序选出第一个可用的直播源，选中的直播源探测结果过期时触发异步探测
      * @param servers 直播源列表
      * @return 可用的地址，如果都不可用，返回空
      */
-    private String getAvailableServer(List<ServerInfo> servers, String tvName) {
+    private String selectServer(List<ServerInfo> servers, String tvName) {
+        if (servers == null) {
+            return null;
+        }
+        long staleMillis = TimeUnit.SECONDS.toMillis(probeProperties.getStaleSeconds());
         for (ServerInfo serverInfo : servers) {
             String server = serverInfo.getUrl();
-            // 如果是需要代理的直播源，默认可用
-            if (IptvConfig.checkNeedProxy(server) || serverTest.test(server)) {
+            // 如果是需要代理的直播源，默认可用，还没探测过的直播源也先认为可用，熔断中的直播源直接跳过
+            if (serverInfo.getBreakerState() == BreakerState.OPEN) {
+                continue;
+            }
+            if (IptvConfig.checkNeedProxy(server) || serverInfo.getLastProbeTime() == 0 || serverInfo.isLastProbeSuccess()) {
+                if (staleMillis > 0 && serverInfo.isProbeStale(staleMillis)) {
+                    probeExecutor.submitTv(tvName);
+                }
                 return server;
-            } else {
-                log.error("电视台：{}，直播源：{}，不可用", tvName, server);
             }
         }
-        log.error("电视台：{} 找不到可用直播源，请尝试更换直播源", tvName);
         return null;
     }
 
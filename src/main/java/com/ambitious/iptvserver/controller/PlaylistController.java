@@ -0,0 +1,56 @@
+package com.ambitious.iptvserver.controller;
+
+import com.ambitious.iptvserver.playlist.PlaylistService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import javax.annotation.Resource;
+
+/**
+ * 提供给播放器的 M3U 频道列表，
+ * 支持 ETag 条件请求以及 gzip 压缩，内容没有变化时只返回 304
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@RestController
+public class PlaylistController {
+
+    private static final String PLAYLIST_CONTENT_TYPE = "audio/x-mpegurl;charset=UTF-8";
+
+    @Resource
+    private PlaylistService playlistService;
+
+    @GetMapping("/iptv/playlist.m3u")
+    public ResponseEntity<byte[]> playlist(@RequestParam(required = false) String group,
+                                           @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                           @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        String baseUrl = ServletUriComponentsBuilder.fromCurrentContextPath().build().toUriString();
+        PlaylistService.RenderedPlaylist playlist = playlistService.getPlaylist(baseUrl, group);
+        // JDK 没有 Brotli 编码器，只提供 gzip 压缩版本
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        if (ifNoneMatch != null && (ifNoneMatch.contains(playlist.getEtag()) || ifNoneMatch.contains(playlist.getGzipEtag()))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(gzip ? playlist.getGzipEtag() : playlist.getEtag())
+                    .cacheControl(CacheControl.noCache())
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .header(HttpHeaders.CONTENT_TYPE, PLAYLIST_CONTENT_TYPE);
+        if (gzip) {
+            return builder.eTag(playlist.getGzipEtag())
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .body(playlist.getGzipBody());
+        }
+        return builder.eTag(playlist.getEtag()).body(playlist.getBody());
+    }
+}
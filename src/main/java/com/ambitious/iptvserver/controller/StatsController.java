@@ -0,0 +1,113 @@
+package com.ambitious.iptvserver.controller;
+
+import com.ambitious.iptvserver.job.ServerScoringJob;
+import com.ambitious.iptvserver.job.service.ChannelDemandStats;
+import com.ambitious.iptvserver.job.service.FfmpegProcessRunner;
+import com.ambitious.iptvserver.job.service.ServerProbeExecutor;
+import com.ambitious.iptvserver.proxy.SegmentCache;
+import com.ambitious.iptvserver.proxy.StreamHub;
+import com.ambitious.iptvserver.util.SingleFlight;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import okhttp3.OkHttpClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 运行状态统计
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@RestController
+public class StatsController {
+
+    @Resource
+    private FfmpegProcessRunner ffmpegProcessRunner;
+    @Resource
+    private ServerProbeExecutor probeExecutor;
+    @Resource
+    private ServerScoringJob scoringJob;
+    @Resource
+    private ChannelDemandStats demandStats;
+    @Resource
+    private SegmentCache segmentCache;
+    @Resource
+    private StreamHub streamHub;
+    @Resource
+    private OkHttpClient httpClient;
+    @Resource
+    private OkHttpClient probeHttpClient;
+    @Resource
+    private OkHttpClient proxyHttpClient;
+
+    @GetMapping("/iptv-stats")
+    public Map<String, Object> stats() {
+        Map<String, Object> ffmpeg = Maps.newLinkedHashMap();
+        ffmpeg.put("live", ffmpegProcessRunner.getLiveCount());
+        ffmpeg.put("started", ffmpegProcessRunner.getStartedCount());
+        ffmpeg.put("timeouts", ffmpegProcessRunner.getTimeoutCount());
+        ffmpeg.put("kills", ffmpegProcessRunner.getKillCount());
+        ffmpeg.put("rejected", ffmpegProcessRunner.getRejectedCount());
+        Map<String, Object> res = Maps.newLinkedHashMap();
+        res.put("ffmpeg", ffmpeg);
+        res.put("urlProbes", flightStats(probeExecutor.getUrlFlight()));
+        res.put("tvProbes", flightStats(probeExecutor.getTvFlight()));
+        Map<String, Object> scheduler = Maps.newLinkedHashMap();
+        scheduler.put("scheduled", scoringJob.getScheduledCount());
+        scheduler.put("probes", scoringJob.getProbeCount());
+        res.put("scheduler", scheduler);
+        CacheStats cacheStats = segmentCache.stats();
+        Map<String, Object> segments = Maps.newLinkedHashMap();
+        segments.put("size", segmentCache.size());
+        segments.put("hits", cacheStats.hitCount());
+        segments.put("misses", cacheStats.missCount());
+        segments.put("evictions", cacheStats.evictionCount());
+        res.put("segmentCache", segments);
+        Map<String, Object> hub = Maps.newLinkedHashMap();
+        hub.put("channels", streamHub.getChannelCount());
+        hub.put("subscribers", streamHub.getSubscriberCount());
+        hub.put("dropped", streamHub.getDroppedCount());
+        res.put("streamHub", hub);
+        Map<String, Object> clients = Maps.newLinkedHashMap();
+        clients.put("config", clientStats(httpClient));
+        clients.put("probe", clientStats(probeHttpClient));
+        clients.put("proxy", clientStats(proxyHttpClient));
+        res.put("httpClients", clients);
+        return res;
+    }
+
+    @GetMapping("/iptv-hot")
+    public List<Map<String, Object>> hot(@RequestParam(defaultValue = "20") int limit) {
+        List<Map<String, Object>> res = Lists.newArrayList();
+        for (Map.Entry<String, Long> entry : demandStats.getHottest(limit)) {
+            Map<String, Object> item = Maps.newLinkedHashMap();
+            item.put("type", entry.getKey());
+            item.put("requests", entry.getValue());
+            res.add(item);
+        }
+        return res;
+    }
+
+    private Map<String, Object> clientStats(OkHttpClient client) {
+        Map<String, Object> res = Maps.newLinkedHashMap();
+        res.put("connections", client.connectionPool().connectionCount());
+        res.put("idleConnections", client.connectionPool().idleConnectionCount());
+        res.put("runningCalls", client.dispatcher().runningCallsCount());
+        res.put("queuedCalls", client.dispatcher().queuedCallsCount());
+        return res;
+    }
+
+    private Map<String, Object> flightStats(SingleFlight<?, ?> flight) {
+        Map<String, Object> res = Maps.newLinkedHashMap();
+        res.put("calls", flight.getCalls());
+        res.put("deduplicated", flight.getDeduplicated());
+        res.put("inFlight", flight.getInFlight());
+        return res;
+    }
+}
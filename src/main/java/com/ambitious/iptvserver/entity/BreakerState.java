@@ -0,0 +1,22 @@
+package com.ambitious.iptvserver.entity;
+
+/**
+ * 直播源熔断状态
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public enum BreakerState {
+
+    /**
+     * 正常，参与选择和定时探测
+     */
+    CLOSED,
+    /**
+     * 连续失败后熔断，退避时间内不参与选择，也不会被探测
+     */
+    OPEN,
+    /**
+     * 退避时间已过，等待一次探测决定恢复还是继续熔断
+     */
+    HALF_OPEN
+}
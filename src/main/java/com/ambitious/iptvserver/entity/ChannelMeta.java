@@ -0,0 +1,33 @@
+package com.ambitious.iptvserver.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 电视台的附加信息，来自 M3U 播放列表的 #EXTINF 属性
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChannelMeta {
+
+    /**
+     * 节目单中的频道 id
+     */
+    private String tvgId;
+    /**
+     * 显示名称
+     */
+    private String name;
+    /**
+     * 台标地址
+     */
+    private String logo;
+    /**
+     * 分组
+     */
+    private String group;
+}
@@ -1,16 +1,64 @@
 package com.ambitious.iptvserver.entity;
 
 import cn.hutool.core.util.StrUtil;
-import lombok.Data;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * 存放直播源的相关信息
+ * 评分由两部分组成：随时间衰减的成功率，以及启动耗时，
+ * 连续失败达到阈值后熔断，退避时间按连续失败次数指数增长，
+ * 写入统一在 addRecord 中加锁完成，读取只访问 volatile 字段，不需要加锁
  * @author ambitious
  * @date 2023/9/6
  */
-@Data
+@Getter
+@ToString(of = {"url", "score"})
 public class ServerInfo {
 
+    /**
+     * 成功率的衰减时间常数（毫秒），越久之前的探测结果权重越低
+     */
+    private static final double SUCCESS_DECAY_MILLIS = 6 * 60 * 60 * 1000.0;
+    /**
+     * 单次探测对成功率的最小影响权重，避免探测过于频繁时单次结果不起作用
+     */
+    private static final double MIN_SUCCESS_ALPHA = 0.02;
+    /**
+     * 启动耗时的平滑系数
+     */
+    private static final double LATENCY_ALPHA = 0.3;
+    /**
+     * 启动耗时的参考值（毫秒），耗时等于参考值时，耗时部分的得分减半
+     */
+    private static final double LATENCY_REFERENCE_MILLIS = 1000.0;
+    /**
+     * 评分中耗时部分所占的比重
+     */
+    private static final double LATENCY_WEIGHT = 0.3;
+    /**
+     * 启动耗时直方图的桶上界（毫秒），最后一个桶不设上界
+     */
+    private static final long[] LATENCY_BUCKETS = {100, 200, 500, 1000, 2000, 5000, 10000, Long.MAX_VALUE};
+    /**
+     * 直方图样本数达到这个值时所有桶减半，让旧的样本逐渐失效
+     */
+    private static final long HISTOGRAM_DECAY_SAMPLES = 64;
+    /**
+     * 连续失败多少次后熔断
+     */
+    private static final int BREAKER_FAILURE_THRESHOLD = 3;
+    /**
+     * 熔断的初始退避时间以及最长退避时间（毫秒）
+     */
+    private static final long BREAKER_BASE_BACKOFF_MILLIS = 60 * 1000L;
+    private static final long BREAKER_MAX_BACKOFF_MILLIS = 6 * 60 * 60 * 1000L;
+
     /**
      * 直播源地址
      */
@@ -18,33 +66,229 @@ public class ServerInfo {
     /**
      * 总请求数
      */
-    private Double requestTotalNum;
+    private volatile long requestTotalNum;
     /**
      * 请求成功数
      */
-    private Double requestSuccessNum;
+    private volatile long requestSuccessNum;
     /**
-     * 请求成功的比率
+     * 随时间衰减的请求成功率
      */
-    private Double successRate;
+    private volatile double successRate;
+    /**
+     * 成功探测的启动耗时的指数移动平均值（毫秒），-1 表示还没有样本
+     */
+    private volatile double latencyEwmaMillis = -1;
+    /**
+     * 综合评分，成功率为主，启动耗时越短分数越高
+     */
+    private volatile double score;
+    /**
+     * 最近一次探测的时间戳，0 表示从未探测
+     */
+    private volatile long lastProbeTime;
+    /**
+     * 最近一次探测是否成功
+     */
+    private volatile boolean lastProbeSuccess;
+    /**
+     * 连续失败次数
+     */
+    private volatile int consecutiveFailures;
+    /**
+     * 熔断的截止时间戳，0 表示没有熔断
+     */
+    private volatile long openUntil;
+    /**
+     * 启动耗时直方图
+     */
+    @Getter(AccessLevel.NONE)
+    private final long[] latencyHistogram = new long[LATENCY_BUCKETS.length];
 
     public ServerInfo(String url) {
         this.url = url;
-        this.requestTotalNum = 0.0;
-        this.requestSuccessNum = 0.0;
-        this.successRate = 0.0;
     }
 
     /**
-     * 添加请求记录
+     * 添加请求记录，不记录耗时
      * @param success 是否请求成功
      */
     public void addRecord(boolean success) {
+        addRecord(success, -1);
+    }
+
+    /**
+     * 添加请求记录
+     * @param success 是否请求成功
+     * @param latencyMillis 启动耗时（毫秒），小于 0 表示未知
+     */
+    public synchronized void addRecord(boolean success, long latencyMillis) {
+        long now = System.currentTimeMillis();
+        double sample = success ? 1.0 : 0.0;
+        if (requestTotalNum == 0) {
+            successRate = sample;
+        } else {
+            double alpha = Math.max(MIN_SUCCESS_ALPHA, 1 - Math.exp(-(now - lastProbeTime) / SUCCESS_DECAY_MILLIS));
+            successRate += alpha * (sample - successRate);
+        }
         if (success) {
             requestSuccessNum++;
+            if (latencyMillis >= 0) {
+                recordLatency(latencyMillis);
+            }
+            consecutiveFailures = 0;
+            openUntil = 0;
+        } else {
+            consecutiveFailures++;
+            if (consecutiveFailures >= BREAKER_FAILURE_THRESHOLD) {
+                int exponent = Math.min(consecutiveFailures - BREAKER_FAILURE_THRESHOLD, 20);
+                openUntil = now + Math.min(BREAKER_MAX_BACKOFF_MILLIS, BREAKER_BASE_BACKOFF_MILLIS << exponent);
+            }
         }
         requestTotalNum++;
-        successRate = requestSuccessNum / requestTotalNum;
+        lastProbeSuccess = success;
+        lastProbeTime = now;
+        score = computeScore();
+    }
+
+    private void recordLatency(long latencyMillis) {
+        latencyEwmaMillis = latencyEwmaMillis < 0
+                ? latencyMillis
+                : latencyEwmaMillis + LATENCY_ALPHA * (latencyMillis - latencyEwmaMillis);
+        long samples = 0;
+        for (long count : latencyHistogram) {
+            samples += count;
+        }
+        if (samples >= HISTOGRAM_DECAY_SAMPLES) {
+            for (int i = 0; i < latencyHistogram.length; i++) {
+                latencyHistogram[i] >>= 1;
+            }
+        }
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            if (latencyMillis <= LATENCY_BUCKETS[i]) {
+                latencyHistogram[i]++;
+                break;
+            }
+        }
+    }
+
+    private double computeScore() {
+        double latencyScore = latencyEwmaMillis < 0
+                ? 1.0
+                : LATENCY_REFERENCE_MILLIS / (LATENCY_REFERENCE_MILLIS + latencyEwmaMillis);
+        return successRate * ((1 - LATENCY_WEIGHT) + LATENCY_WEIGHT * latencyScore);
+    }
+
+    /**
+     * 获取当前的熔断状态
+     * @return 熔断状态
+     */
+    public BreakerState getBreakerState() {
+        long until = openUntil;
+        if (until == 0) {
+            return BreakerState.CLOSED;
+        }
+        return System.currentTimeMillis() < until ? BreakerState.OPEN : BreakerState.HALF_OPEN;
+    }
+
+    /**
+     * 获取启动耗时的分位数
+     * @param percentile 分位，取值 0 ~ 1
+     * @return 分位数所在桶的上界（毫秒），没有样本时返回 -1
+     */
+    public synchronized long getLatencyPercentile(double percentile) {
+        long total = 0;
+        for (long count : latencyHistogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long threshold = (long) Math.ceil(total * percentile);
+        long cumulative = 0;
+        for (int i = 0; i < latencyHistogram.length; i++) {
+            cumulative += latencyHistogram[i];
+            if (cumulative >= threshold && latencyHistogram[i] > 0) {
+                return LATENCY_BUCKETS[i];
+            }
+        }
+        return LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1];
+    }
+
+    /**
+     * 从另一个相同地址的直播源拷贝探测状态，用于刷新配置时保留评分
+     * @param another 旧的直播源
+     */
+    public void copyStateFrom(ServerInfo another) {
+        // 先在旧对象的锁内拷贝出来，再写入当前对象，不同时持有两把锁
+        long[] histogram = new long[LATENCY_BUCKETS.length];
+        synchronized (another) {
+            System.arraycopy(another.latencyHistogram, 0, histogram, 0, histogram.length);
+        }
+        synchronized (this) {
+            requestTotalNum = another.requestTotalNum;
+            requestSuccessNum = another.requestSuccessNum;
+            successRate = another.successRate;
+            latencyEwmaMillis = another.latencyEwmaMillis;
+            System.arraycopy(histogram, 0, latencyHistogram, 0, latencyHistogram.length);
+            lastProbeTime = another.lastProbeTime;
+            lastProbeSuccess = another.lastProbeSuccess;
+            score = another.score;
+            consecutiveFailures = another.consecutiveFailures;
+            openUntil = another.openUntil;
+        }
+    }
+
+    /**
+     * 将探测状态写入输出流，用于持久化，不包含地址
+     * @param out 输出流
+     */
+    public synchronized void writeState(DataOutput out) throws IOException {
+        out.writeLong(requestTotalNum);
+        out.writeLong(requestSuccessNum);
+        out.writeDouble(successRate);
+        out.writeDouble(latencyEwmaMillis);
+        out.writeLong(lastProbeTime);
+        out.writeBoolean(lastProbeSuccess);
+        out.writeInt(consecutiveFailures);
+        out.writeLong(openUntil);
+        out.writeByte(latencyHistogram.length);
+        for (long count : latencyHistogram) {
+            out.writeLong(count);
+        }
+    }
+
+    /**
+     * 从输入流中恢复探测状态，与 {@link #writeState(DataOutput)} 对应
+     * @param in 输入流
+     */
+    public synchronized void readState(DataInput in) throws IOException {
+        requestTotalNum = in.readLong();
+        requestSuccessNum = in.readLong();
+        successRate = in.readDouble();
+        latencyEwmaMillis = in.readDouble();
+        lastProbeTime = in.readLong();
+        lastProbeSuccess = in.readBoolean();
+        consecutiveFailures = in.readInt();
+        openUntil = in.readLong();
+        int buckets = in.readUnsignedByte();
+        for (int i = 0; i < buckets; i++) {
+            long count = in.readLong();
+            // 桶的个数发生变化时丢弃多出来的部分
+            if (i < latencyHistogram.length) {
+                latencyHistogram[i] = count;
+            }
+        }
+        score = computeScore();
+    }
+
+    /**
+     * 判断探测结果是否已经过期
+     * @param maxAgeMillis 探测结果的有效时长
+     * @return 是否过期，从未探测过也视为过期
+     */
+    public boolean isProbeStale(long maxAgeMillis) {
+        return lastProbeTime == 0 || System.currentTimeMillis() - lastProbeTime > maxAgeMillis;
     }
 
     @Override
@@ -0,0 +1,76 @@
+package com.ambitious.iptvserver.entity;
+
+import com.google.common.collect.Maps;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 直播源数据的不可变快照，
+ * 任何修改（重新排序、刷新配置）都会生成新的快照整体替换，读取时无需加锁
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Getter
+public class ServersSnapshot {
+
+    public static final ServersSnapshot EMPTY = new ServersSnapshot(0, Collections.emptyMap());
+
+    /**
+     * 配置版本，只有直播源配置发生变化时才会递增，重新排序不改变版本
+     */
+    private final long version;
+    /**
+     * 电视台 key => 按评分排好序的直播源列表
+     */
+    private final Map<String, List<ServerInfo>> servers;
+    /**
+     * 电视台 key => 电视台信息，只有 M3U 格式的配置才有
+     */
+    private final Map<String, ChannelMeta> channels;
+
+    public ServersSnapshot(long version, Map<String, List<ServerInfo>> servers) {
+        this(version, servers, Collections.emptyMap());
+    }
+
+    public ServersSnapshot(long version, Map<String, List<ServerInfo>> servers, Map<String, ChannelMeta> channels) {
+        this.version = version;
+        Map<String, List<ServerInfo>> copy = Maps.newLinkedHashMapWithExpectedSize(servers.size());
+        servers.forEach((tvKey, list) -> copy.put(tvKey, Collections.unmodifiableList(new ArrayList<>(list))));
+        this.servers = Collections.unmodifiableMap(copy);
+        this.channels = Collections.unmodifiableMap(Maps.newLinkedHashMap(channels));
+    }
+
+    /**
+     * 直接使用已经不可变的数据创建快照，避免重复拷贝每个列表
+     */
+    private ServersSnapshot(Map<String, List<ServerInfo>> immutableServers, Map<String, ChannelMeta> immutableChannels, long version) {
+        this.version = version;
+        this.servers = immutableServers;
+        this.channels = immutableChannels;
+    }
+
+    /**
+     * 获取某个电视台的直播源列表
+     * @param tvKey 电视台 key
+     * @return 直播源列表，不存在时返回空
+     */
+    public List<ServerInfo> get(String tvKey) {
+        return servers.get(tvKey);
+    }
+
+    /**
+     * 替换某个电视台的直播源列表，生成新的快照，版本不变
+     * @param tvKey 电视台 key
+     * @param list 新的直播源列表
+     * @return 新的快照
+     */
+    public ServersSnapshot with(String tvKey, List<ServerInfo> list) {
+        Map<String, List<ServerInfo>> copy = Maps.newLinkedHashMap(servers);
+        copy.put(tvKey, Collections.unmodifiableList(new ArrayList<>(list)));
+        return new ServersSnapshot(Collections.unmodifiableMap(copy), channels, version);
+    }
+}
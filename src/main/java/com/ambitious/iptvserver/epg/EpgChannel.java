@@ -0,0 +1,94 @@
+package com.ambitious.iptvserver.epg;
+
+import java.util.Arrays;
+
+/**
+ * 一个电视台的节目单，按开始时间排好序，
+ * 时间使用基本类型数组存储，查询时二分查找
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class EpgChannel {
+
+    private final long[] starts;
+    private final long[] stops;
+    private final String[] titles;
+    private final String[] descs;
+
+    EpgChannel(long[] starts, long[] stops, String[] titles, String[] descs) {
+        this.starts = starts;
+        this.stops = stops;
+        this.titles = titles;
+        this.descs = descs;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    public long getStart(int i) {
+        return starts[i];
+    }
+
+    public long getStop(int i) {
+        return stops[i];
+    }
+
+    public String getTitle(int i) {
+        return titles[i];
+    }
+
+    public String getDesc(int i) {
+        return descs[i];
+    }
+
+    /**
+     * 查找某个时间点正在播出的节目
+     * @param time 时间戳（毫秒）
+     * @return 节目下标，没有节目时返回 -1
+     */
+    public int indexAt(long time) {
+        int i = lastStartAtOrBefore(time);
+        return i >= 0 && stops[i] > time ? i : -1;
+    }
+
+    /**
+     * 查找某个时间点之后第一个开始的节目
+     * @param time 时间戳（毫秒）
+     * @return 节目下标，没有节目时返回 -1
+     */
+    public int indexAfter(long time) {
+        int i = lastStartAtOrBefore(time) + 1;
+        return i < starts.length ? i : -1;
+    }
+
+    /**
+     * 查找与时间段有重叠的节目
+     * @param from 开始时间戳（包含）
+     * @param to 结束时间戳（不包含）
+     * @return 节目下标范围 [起始, 结束)
+     */
+    public int[] range(long from, long to) {
+        int begin = lastStartAtOrBefore(from);
+        if (begin < 0 || stops[begin] <= from) {
+            begin++;
+        }
+        int end = lastStartAtOrBefore(to - 1) + 1;
+        return new int[]{begin, Math.max(begin, end)};
+    }
+
+    /**
+     * @return 最后一个开始时间不晚于 time 的节目下标，不存在时返回 -1
+     */
+    private int lastStartAtOrBefore(long time) {
+        int i = Arrays.binarySearch(starts, time);
+        if (i >= 0) {
+            // 开始时间相同的节目取最后一个
+            while (i + 1 < starts.length && starts[i + 1] == time) {
+                i++;
+            }
+            return i;
+        }
+        return -i - 2;
+    }
+}
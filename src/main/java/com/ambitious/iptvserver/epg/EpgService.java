@@ -0,0 +1,361 @@
+package com.ambitious.iptvserver.epg;
+
+import cn.hutool.core.util.StrUtil;
+import com.ambitious.iptvserver.config.EpgProperties;
+import com.ambitious.iptvserver.config.IptvConfig;
+import com.ambitious.iptvserver.entity.ChannelMeta;
+import com.ambitious.iptvserver.entity.ServersSnapshot;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 加载 XMLTV 节目单并按电视台建立时间索引，
+ * 频道依次按 tvg-id、电视台 key、显示名称对应到电视台，
+ * 直播源配置的版本变化时重新对应，不需要重新加载节目单；
+ * 加载或者重新对应完成后整体替换索引，查询无需加锁
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Service
+@Slf4j
+public class EpgService implements InitializingBean, DisposableBean {
+
+    private static final DateTimeFormatter XMLTV_TIME = DateTimeFormatter.ofPattern("yyyyMMddHHmmss Z").withZone(ZoneOffset.UTC);
+
+    @Resource
+    private EpgProperties epgProperties;
+    @Resource
+    private OkHttpClient httpClient;
+    /**
+     * 下载节目单的客户端：节目单文件可能很大，不限制整个请求的时长，只限制读取的间隔
+     */
+    private OkHttpClient downloadClient;
+    /**
+     * 最近一次加载的节目单
+     */
+    private volatile Loaded loaded = new Loaded(Collections.emptyMap(), Collections.emptyMap());
+    /**
+     * 电视台 key => 节目单，以及建立它时使用的节目单与直播源配置版本
+     */
+    private volatile Index index = new Index(Collections.emptyMap(), loaded, -1);
+    /**
+     * 重新建立索引的锁，与加载节目单的锁分开，加载过程中查询不会等待
+     */
+    private final Object indexLock = new Object();
+    /**
+     * 节目单文件 => 最近一次加载成功的结果，只在 reload 中访问
+     */
+    private Map<String, Loaded> lastGood = Collections.emptyMap();
+    private ExecutorService loader;
+
+    @Override
+    public void afterPropertiesSet() {
+        downloadClient = httpClient.newBuilder()
+                .callTimeout(0, TimeUnit.MILLISECONDS)
+                .readTimeout(epgProperties.getReadTimeoutSeconds(), TimeUnit.SECONDS)
+                .build();
+        loader = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("epg-loader").setDaemon(true).build());
+        if (isEnabled()) {
+            // 节目单文件可能很大，不阻塞启动
+            loader.execute(this::reload);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        loader.shutdownNow();
+    }
+
+    @Scheduled(fixedDelayString = "${iptv.epg.refresh-minutes:360}",
+            initialDelayString = "${iptv.epg.refresh-minutes:360}", timeUnit = TimeUnit.MINUTES)
+    public void doJob() {
+        if (isEnabled()) {
+            reload();
+        }
+    }
+
+    private boolean isEnabled() {
+        return epgProperties.getSources() != null && !epgProperties.getSources().isEmpty();
+    }
+
+    /**
+     * 重新加载所有节目单文件，某个文件加载失败时沿用它上一次加载成功的结果
+     */
+    public synchronized void reload() {
+        long now = System.currentTimeMillis();
+        long windowStart = now - TimeUnit.HOURS.toMillis(epgProperties.getRetainPastHours());
+        long windowEnd = now + TimeUnit.HOURS.toMillis(epgProperties.getRetainFutureHours());
+        Map<String, Loaded> results = Maps.newLinkedHashMap();
+        for (String source : epgProperties.getSources()) {
+            long start = System.currentTimeMillis();
+            try {
+                results.put(source, load(source, windowStart, windowEnd));
+                log.info("节目单加载完成：{}，耗时 {}ms", source, System.currentTimeMillis() - start);
+            } catch (IOException | XMLStreamException e) {
+                Loaded previous = lastGood.get(source);
+                if (previous != null) {
+                    results.put(source, previous);
+                }
+                log.warn("节目单加载失败：{}，{}{}", source, e.getMessage(), previous != null ? "，沿用上一次的结果" : "");
+            }
+        }
+        lastGood = results;
+        if (results.isEmpty()) {
+            log.warn("所有节目单都加载失败，保留当前的节目单");
+            return;
+        }
+        loaded = merge(results.values());
+        Index newIndex = currentIndex();
+        log.info("节目单索引已更新，电视台数：{}，节目数：{}", newIndex.channels.size(),
+                newIndex.channels.values().stream().mapToInt(EpgChannel::size).sum());
+    }
+
+    /**
+     * 加载一个节目单文件
+     */
+    private Loaded load(String source, long windowStart, long windowEnd) throws IOException, XMLStreamException {
+        Map<String, XmltvParser.Builder> builders = Maps.newLinkedHashMap();
+        Map<String, List<String>> displayNames = Maps.newHashMap();
+        if (source.startsWith("http://") || source.startsWith("https://")) {
+            Request request = new Request.Builder().url(source).get().build();
+            try (Response response = downloadClient.newCall(request).execute()) {
+                ResponseBody body = response.body();
+                if (!response.isSuccessful() || body == null) {
+                    throw new IOException("请求失败，状态码：" + response.code());
+                }
+                parse(body.byteStream(), windowStart, windowEnd, builders, displayNames);
+            }
+        } else {
+            try (InputStream in = Files.newInputStream(Paths.get(StrUtil.removePrefix(source, "file:")))) {
+                parse(in, windowStart, windowEnd, builders, displayNames);
+            }
+        }
+        Map<String, EpgChannel> channels = Maps.newLinkedHashMapWithExpectedSize(builders.size());
+        builders.forEach((id, builder) -> channels.put(id, builder.build()));
+        return new Loaded(channels, displayNames);
+    }
+
+    /**
+     * 合并多个节目单文件，同一个频道的节目与显示名称合并到一起
+     */
+    private Loaded merge(Collection<Loaded> results) {
+        if (results.size() == 1) {
+            return results.iterator().next();
+        }
+        Map<String, XmltvParser.Builder> builders = Maps.newLinkedHashMap();
+        Map<String, List<String>> displayNames = Maps.newHashMap();
+        for (Loaded result : results) {
+            result.channels.forEach((id, channel) -> builders.computeIfAbsent(id, k -> new XmltvParser.Builder()).addAll(channel));
+            result.displayNames.forEach((id, names) -> {
+                List<String> merged = displayNames.computeIfAbsent(id, k -> Lists.newArrayList());
+                names.stream().filter(n -> !merged.contains(n)).forEach(merged::add);
+            });
+        }
+        Map<String, EpgChannel> channels = Maps.newLinkedHashMapWithExpectedSize(builders.size());
+        builders.forEach((id, builder) -> channels.put(id, builder.build()));
+        return new Loaded(channels, displayNames);
+    }
+
+    /**
+     * 获取与最近一次加载的节目单以及当前直播源配置对应的索引，两者有变化时重新建立
+     */
+    private Index currentIndex() {
+        Index current = index;
+        ServersSnapshot snapshot = IptvConfig.getSnapshot();
+        if (current.loaded == loaded && current.version == snapshot.getVersion()) {
+            return current;
+        }
+        synchronized (indexLock) {
+            current = index;
+            Loaded source = loaded;
+            if (current.loaded != source || current.version != snapshot.getVersion()) {
+                current = buildIndex(source, snapshot);
+                index = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * 将节目单中的频道对应到电视台，多个频道对应到同一个电视台时取第一个
+     */
+    private Index buildIndex(Loaded source, ServersSnapshot snapshot) {
+        XmltvParser.ChannelResolver resolver = buildResolver(snapshot);
+        Map<String, EpgChannel> channels = Maps.newHashMap();
+        source.channels.forEach((id, channel) -> {
+            String tvKey = resolver.resolve(id, source.displayNames.getOrDefault(id, Collections.emptyList()));
+            if (tvKey != null) {
+                channels.putIfAbsent(tvKey, channel);
+            }
+        });
+        return new Index(Collections.unmodifiableMap(channels), source, snapshot.getVersion());
+    }
+
+    /**
+     * 解析一个节目单文件，gzip 压缩的文件自动解压
+     */
+    private void parse(InputStream raw, long windowStart, long windowEnd, Map<String, XmltvParser.Builder> builders,
+                       Map<String, List<String>> displayNames) throws IOException, XMLStreamException {
+        InputStream in = new BufferedInputStream(raw);
+        in.mark(2);
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+        if (b1 == 0x1f && b2 == 0x8b) {
+            in = new GZIPInputStream(in);
+        }
+        XmltvParser.parse(in, windowStart, windowEnd, builders, displayNames);
+    }
+
+    /**
+     * 依据当前的直播源配置建立频道与电视台的对应关系
+     */
+    private XmltvParser.ChannelResolver buildResolver(ServersSnapshot snapshot) {
+        Map<String, String> byTvgId = Maps.newHashMap();
+        Map<String, String> byName = Maps.newHashMap();
+        for (String tvKey : snapshot.getServers().keySet()) {
+            byName.put(tvKey, tvKey);
+            ChannelMeta meta = snapshot.getChannels().get(tvKey);
+            if (meta == null) {
+                continue;
+            }
+            if (StrUtil.isNotBlank(meta.getTvgId())) {
+                byTvgId.putIfAbsent(meta.getTvgId(), tvKey);
+            }
+            if (StrUtil.isNotBlank(meta.getName())) {
+                byName.putIfAbsent(meta.getName(), tvKey);
+            }
+        }
+        return (id, displayNames) -> {
+            String tvKey = byTvgId.get(id);
+            if (tvKey == null) {
+                tvKey = byName.get(id);
+            }
+            for (int i = 0; tvKey == null && i < displayNames.size(); i++) {
+                tvKey = byName.get(displayNames.get(i));
+            }
+            return tvKey;
+        };
+    }
+
+    /**
+     * 获取电视台的节目单
+     * @param tvKey 电视台 key
+     * @return 节目单，没有时返回空
+     */
+    public EpgChannel getChannel(String tvKey) {
+        return currentIndex().channels.get(tvKey);
+    }
+
+    /**
+     * 以 XMLTV 格式输出节目单
+     * @param tvKeys 要输出的电视台，为空表示全部
+     * @param out 输出流
+     */
+    public void writeXmltv(Collection<String> tvKeys, OutputStream out) throws XMLStreamException {
+        Map<String, EpgChannel> current = currentIndex().channels;
+        Collection<String> keys = tvKeys == null || tvKeys.isEmpty() ? current.keySet() : tvKeys;
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+        try {
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement("tv");
+            for (String tvKey : keys) {
+                if (!current.containsKey(tvKey)) {
+                    continue;
+                }
+                writer.writeStartElement("channel");
+                writer.writeAttribute("id", tvKey);
+                writer.writeStartElement("display-name");
+                writer.writeCharacters(tvKey);
+                writer.writeEndElement();
+                writer.writeEndElement();
+            }
+            for (String tvKey : keys) {
+                EpgChannel channel = current.get(tvKey);
+                if (channel == null) {
+                    continue;
+                }
+                for (int i = 0; i < channel.size(); i++) {
+                    writer.writeStartElement("programme");
+                    writer.writeAttribute("start", formatTime(channel.getStart(i)));
+                    writer.writeAttribute("stop", formatTime(channel.getStop(i)));
+                    writer.writeAttribute("channel", tvKey);
+                    writeText(writer, "title", channel.getTitle(i));
+                    writeText(writer, "desc", channel.getDesc(i));
+                    writer.writeEndElement();
+                }
+            }
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeText(XMLStreamWriter writer, String name, String text) throws XMLStreamException {
+        if (text == null) {
+            return;
+        }
+        writer.writeStartElement(name);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
+    private String formatTime(long millis) {
+        return XMLTV_TIME.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * 加载的节目单，按 XMLTV 的频道 id 保存
+     */
+    @AllArgsConstructor
+    private static class Loaded {
+        private final Map<String, EpgChannel> channels;
+        private final Map<String, List<String>> displayNames;
+    }
+
+    /**
+     * 按电视台建立的节目单索引
+     */
+    @AllArgsConstructor
+    private static class Index {
+        private final Map<String, EpgChannel> channels;
+        private final Loaded loaded;
+        private final long version;
+    }
+}
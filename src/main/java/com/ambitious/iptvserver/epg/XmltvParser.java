@@ -0,0 +1,258 @@
+package com.ambitious.iptvserver.epg;
+
+import com.google.common.collect.Lists;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 使用 StAX 流式解析 XMLTV 节目单，按 XMLTV 的频道 id 保存落在保留时间窗口内的节目，
+ * 内存占用与保留的节目数成正比；频道与电视台的对应在解析之后进行，直播源配置变化时不需要重新解析
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class XmltvParser {
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * 将 XMLTV 中的频道对应到电视台
+     */
+    public interface ChannelResolver {
+        /**
+         * @param id 频道 id
+         * @param displayNames 频道的显示名称
+         * @return 电视台 key，对应不上时返回空
+         */
+        String resolve(String id, List<String> displayNames);
+    }
+
+    /**
+     * 解析节目单
+     * @param in 输入流，不负责关闭
+     * @param windowStart 保留窗口的开始时间戳（毫秒）
+     * @param windowEnd 保留窗口的结束时间戳（毫秒）
+     * @param into 解析结果写入的位置，频道 id => 节目单构建器，多个文件可以写入同一个位置
+     * @param displayNames 频道 id => 显示名称，多个文件中同一个频道的名称会合并
+     */
+    public static void parse(InputStream in, long windowStart, long windowEnd,
+                             Map<String, Builder> into, Map<String, List<String>> displayNames) throws XMLStreamException {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if ("channel".equals(name)) {
+                    String id = reader.getAttributeValue(null, "id");
+                    List<String> names = readDisplayNames(reader);
+                    if (id != null) {
+                        List<String> merged = displayNames.computeIfAbsent(id, k -> Lists.newArrayList());
+                        names.stream().filter(n -> !merged.contains(n)).forEach(merged::add);
+                    }
+                } else if ("programme".equals(name)) {
+                    String channel = reader.getAttributeValue(null, "channel");
+                    long start = parseTime(reader.getAttributeValue(null, "start"));
+                    long stop = parseTime(reader.getAttributeValue(null, "stop"));
+                    boolean inWindow = start >= 0 && start < windowEnd && (stop < 0 || stop > windowStart);
+                    if (channel == null || !inWindow) {
+                        skipElement(reader);
+                        continue;
+                    }
+                    String[] texts = readProgrammeTexts(reader);
+                    into.computeIfAbsent(channel, k -> new Builder()).add(start, stop, texts[0], texts[1]);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static List<String> readDisplayNames(XMLStreamReader reader) throws XMLStreamException {
+        List<String> names = Lists.newArrayList();
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if ("display-name".equals(reader.getLocalName())) {
+                    names.add(reader.getElementText().trim());
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return names;
+    }
+
+    /**
+     * 读取节目的标题以及简介，多语言时取第一个
+     * @return [标题, 简介]
+     */
+    private static String[] readProgrammeTexts(XMLStreamReader reader) throws XMLStreamException {
+        String[] texts = new String[2];
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if ("title".equals(name) && texts[0] == null) {
+                    texts[0] = reader.getElementText().trim();
+                } else if ("desc".equals(name) && texts[1] == null) {
+                    texts[1] = reader.getElementText().trim();
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return texts;
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * 解析 XMLTV 的时间格式：yyyyMMddHHmmss +zzzz，时区缺省时按 UTC 处理
+     * @param value 时间
+     * @return 时间戳（毫秒），格式错误时返回 -1
+     */
+    static long parseTime(String value) {
+        if (value == null || value.length() < 14) {
+            return -1;
+        }
+        try {
+            LocalDateTime time = LocalDateTime.of(
+                    digits(value, 0, 4), digits(value, 4, 6), digits(value, 6, 8),
+                    digits(value, 8, 10), digits(value, 10, 12), digits(value, 12, 14));
+            ZoneOffset offset = ZoneOffset.UTC;
+            String rest = value.substring(14).trim();
+            if (rest.length() == 5 && (rest.charAt(0) == '+' || rest.charAt(0) == '-')) {
+                int sign = rest.charAt(0) == '-' ? -1 : 1;
+                offset = ZoneOffset.ofHoursMinutes(sign * digits(rest, 1, 3), sign * digits(rest, 3, 5));
+            }
+            return time.toEpochSecond(offset) * 1000;
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static int digits(String s, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException(s);
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+    /**
+     * 一个电视台的节目单构建器，解析完成后压缩成 {@link EpgChannel}
+     */
+    public static class Builder {
+
+        private long[] starts = new long[16];
+        private long[] stops = new long[16];
+        private String[] titles = new String[16];
+        private String[] descs = new String[16];
+        private int size;
+
+        void add(long start, long stop, String title, String desc) {
+            if (size == starts.length) {
+                int capacity = size * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                stops = Arrays.copyOf(stops, capacity);
+                titles = Arrays.copyOf(titles, capacity);
+                descs = Arrays.copyOf(descs, capacity);
+            }
+            starts[size] = start;
+            stops[size] = stop;
+            titles[size] = title;
+            descs[size] = desc;
+            size++;
+        }
+
+        /**
+         * 加入已经构建好的节目单，用于合并多个节目单文件中的同一个频道
+         */
+        void addAll(EpgChannel channel) {
+            for (int i = 0; i < channel.size(); i++) {
+                add(channel.getStart(i), channel.getStop(i), channel.getTitle(i), channel.getDesc(i));
+            }
+        }
+
+        /**
+         * 按开始时间排序，开始时间相同的只保留第一个，缺少结束时间的节目以下一个节目的开始时间作为结束，
+         * 最后一个节目缺少结束时间时播放到当天结束（按服务器时区）
+         * @return 节目单
+         */
+        public EpgChannel build() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> starts[i]));
+            long[] s = new long[size];
+            long[] e = new long[size];
+            String[] t = new String[size];
+            String[] d = new String[size];
+            int n = 0;
+            for (int idx : order) {
+                if (n > 0 && s[n - 1] == starts[idx]) {
+                    continue;
+                }
+                s[n] = starts[idx];
+                e[n] = stops[idx];
+                t[n] = titles[idx];
+                d[n] = descs[idx];
+                n++;
+            }
+            for (int i = 0; i < n; i++) {
+                if (e[i] < 0) {
+                    e[i] = i + 1 < n ? s[i + 1] : endOfDay(s[i]);
+                }
+            }
+            return new EpgChannel(Arrays.copyOf(s, n), Arrays.copyOf(e, n), Arrays.copyOf(t, n), Arrays.copyOf(d, n));
+        }
+
+        /**
+         * @return 时间戳所在当天结束（下一天开始）的时间戳
+         */
+        static long endOfDay(long millis) {
+            ZoneId zone = ZoneId.systemDefault();
+            return Instant.ofEpochMilli(millis).atZone(zone).toLocalDate().plusDays(1)
+                    .atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.ambitious.iptvserver.job;
+
+import com.ambitious.iptvserver.config.ConfigRefreshProperties;
+import com.ambitious.iptvserver.config.IptvConfig;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定时刷新直播源配置，配置没有变化时几乎没有开销
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Component
+public class ConfigRefreshJob {
+
+    @Resource
+    private IptvConfig iptvConfig;
+    @Resource
+    private ConfigRefreshProperties refreshProperties;
+
+    @Scheduled(fixedDelayString = "${iptv.refresh.interval-seconds:60}",
+            initialDelayString = "${iptv.refresh.interval-seconds:60}", timeUnit = TimeUnit.SECONDS)
+    public void doJob() {
+        if (refreshProperties.isEnabled()) {
+            iptvConfig.refreshServers();
+        }
+    }
+}
@@ -1,71 +1,291 @@
 package com.ambitious.iptvserver.job;
 
 import com.ambitious.iptvserver.config.IptvConfig;
+import com.ambitious.iptvserver.config.ProbeProperties;
+import com.ambitious.iptvserver.entity.BreakerState;
 import com.ambitious.iptvserver.entity.ServerInfo;
-import com.ambitious.iptvserver.job.service.ServerTest;
+import com.ambitious.iptvserver.entity.ServersSnapshot;
+import com.ambitious.iptvserver.job.service.ChannelDemandStats;
+import com.ambitious.iptvserver.job.service.HealthStateStore;
+import com.ambitious.iptvserver.job.service.ServerProbeExecutor;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.RateLimiter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * 每隔 30 分钟就对所有直播源进行一次请求，
- * 更新直播源评分后，
- * 依据评分重新进行排序
+ * 持续地逐个探测直播源，
+ * 每个直播源按照下一次探测时间排队，到期后探测并更新评分，依据评分重新排序，
+ * 探测间隔由直播源的稳定性、熔断状态以及电视台最近的请求数决定，
+ * 最热门的几个电视台会被提前探测，
+ * 全局探测速率受 probesPerSecond 限制，探测压力均匀分布，不再集中爆发
  * @author ambitious
  * @date 2023/9/6
  */
 @Component
 @Slf4j
-public class ServerScoringJob {
+public class ServerScoringJob implements InitializingBean, DisposableBean {
 
     /**
-     * 时间格式化
+     * 检查直播源配置是否变化以及提前探测热门电视台的间隔（毫秒）
      */
-    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final long RECONCILE_MILLIS = 5000;
     /**
-     * 时区
+     * 探测间隔的随机抖动比例，避免同一批直播源一直同时到期
      */
-    private static final ZoneId ZONE_ID = ZoneId.of("Asia/Shanghai");
+    private static final double JITTER = 0.1;
 
     /**
-     * 直播源连通性测试
+     * 直播源并发探测
      */
-    @Resource(name = "ffmpegServerTest")
-    private ServerTest serverTest;
+    @Resource
+    private ServerProbeExecutor probeExecutor;
+    @Resource
+    private ProbeProperties probeProperties;
+    @Resource
+    private ChannelDemandStats demandStats;
+    /**
+     * 注入探测状态存储，保证调度开始之前已经恢复了上一次的探测状态
+     */
+    @Resource
+    private HealthStateStore healthStateStore;
+    @Resource
+    private MeterRegistry meterRegistry;
+    /**
+     * 按下一次探测时间排队的直播源
+     */
+    private final DelayQueue<ScheduledServer> queue = new DelayQueue<>();
+    /**
+     * 当前正在调度的直播源，tvKey + url => 调度项
+     */
+    private final Map<String, ScheduledServer> scheduled = Maps.newHashMap();
+    /**
+     * 电视台 => 该电视台的所有调度项
+     */
+    private final Map<String, List<ScheduledServer>> scheduledByTv = Maps.newHashMap();
+    /**
+     * 已经调度的直播源配置版本
+     */
+    private long scheduledVersion = -1;
+    /**
+     * 上一次提前探测热门电视台的时间戳
+     */
+    private long lastPrewarm;
+    private RateLimiter rateLimiter;
+    private Thread dispatcher;
+    private volatile boolean running = true;
+    /**
+     * 已经发起的探测数
+     */
+    private final AtomicLong probeCount = new AtomicLong();
+
+    @Override
+    public void afterPropertiesSet() {
+        rateLimiter = RateLimiter.create(probeProperties.getProbesPerSecond());
+        Gauge.builder("iptv.scheduler.queued", queue, DelayQueue::size).register(meterRegistry);
+        FunctionCounter.builder("iptv.scheduler.probes", probeCount, AtomicLong::get).register(meterRegistry);
+        dispatcher = new Thread(this::dispatchLoop, "server-scoring");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        dispatcher.interrupt();
+    }
+
+    public int getScheduledCount() {
+        return queue.size();
+    }
+
+    public long getProbeCount() {
+        return probeCount.get();
+    }
+
+    /**
+     * 调度线程：取出到期的直播源，按速率限制发起探测
+     */
+    private void dispatchLoop() {
+        log.info("直播源持续探测已启动，探测速率上限：{}/s", probeProperties.getProbesPerSecond());
+        while (running) {
+            try {
+                reconcile();
+                prewarm();
+                ScheduledServer item = queue.poll(RECONCILE_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null || item.cancelled) {
+                    continue;
+                }
+                probe(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("直播源探测调度异常：{}", e.getMessage(), e);
+            }
+        }
+    }
 
-    @Scheduled(fixedRate = 30, timeUnit = TimeUnit.MINUTES)
-    public void doJob() {
-        Lock lock = IptvConfig.getServersReadLock();
-        lock.lock();
-        try {
-            log.info("开始更新直播源的评分...");
-            List<String> tvKeys = IptvConfig.getAllTypes();
-            for (String tvKey : tvKeys) {
-                // 拿到电视台的所有直播源
-                List<ServerInfo> servers = IptvConfig.getServers(tvKey);
-                for (ServerInfo serverInfo : servers) {
-                    // 如果是需要进行代理的直播源，就不进行测试
-                    if (IptvConfig.checkNeedProxy(serverInfo.getUrl())) {
-                        serverInfo.addRecord(true);
-                    } else {
-                        // 测试是否能够成功连接
-                        serverInfo.addRecord(serverTest.test(serverInfo.getUrl()));
+    /**
+     * 直播源配置发生变化时，重新建立调度项：
+     * 已经在调度的直播源保留原来的探测时间，新增的直播源立即探测（已经恢复了探测状态的按上次探测时间推算），
+     * 移除的直播源取消调度
+     */
+    private void reconcile() {
+        ServersSnapshot snapshot = IptvConfig.getSnapshot();
+        if (snapshot.getVersion() == scheduledVersion) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, ScheduledServer> next = Maps.newHashMap();
+        scheduledByTv.clear();
+        for (Map.Entry<String, List<ServerInfo>> entry : snapshot.getServers().entrySet()) {
+            for (ServerInfo serverInfo : entry.getValue()) {
+                String key = entry.getKey() + "|" + serverInfo.getUrl();
+                if (next.containsKey(key)) {
+                    continue;
+                }
+                ScheduledServer old = scheduled.remove(key);
+                ScheduledServer item;
+                if (old != null && old.serverInfo == serverInfo) {
+                    // 刷新配置时沿用了原来的直播源对象，调度项保持不变
+                    item = old;
+                } else {
+                    if (old != null) {
+                        old.cancelled = true;
+                    }
+                    item = new ScheduledServer(entry.getKey(), serverInfo, old == null ? now : old.dueAt);
+                    if (old == null && serverInfo.getLastProbeTime() > 0) {
+                        // 恢复了探测状态的直播源，从上一次探测的时间开始计算
+                        item.dueAt = Math.max(now, serverInfo.getLastProbeTime()
+                                + nextIntervalMillis(item, demandStats.getDemand(item.tvKey)));
                     }
+                    queue.put(item);
                 }
-                IptvConfig.reSort(tvKey);
-                printTvScore(tvKey);
+                next.put(key, item);
+                scheduledByTv.computeIfAbsent(entry.getKey(), k -> Lists.newArrayList()).add(item);
             }
-            log.info("直播源评分更新完成，下次更新时间：" + FORMATTER.format(ZonedDateTime.now(ZONE_ID).toLocalDateTime().plusMinutes(30)));
-        } finally {
-            lock.unlock();
+        }
+        scheduled.values().forEach(item -> item.cancelled = true);
+        scheduled.clear();
+        scheduled.putAll(next);
+        // 清理已经取消的调度项，正在探测的调度项完成后不会再入队
+        queue.removeIf(item -> item.cancelled);
+        log.info("直播源调度已更新，配置版本：{}，直播源数：{}", snapshot.getVersion(), next.size());
+        scheduledVersion = snapshot.getVersion();
+    }
+
+    /**
+     * 提前探测最热门的电视台：
+     * 如果排队中的直播源距离下一次探测的时间比按当前热度计算的间隔还要长，就把它提前
+     */
+    private void prewarm() {
+        long now = System.currentTimeMillis();
+        if (now - lastPrewarm < RECONCILE_MILLIS) {
+            return;
+        }
+        lastPrewarm = now;
+        for (Map.Entry<String, Long> hot : demandStats.getHottest(probeProperties.getPrewarmTopN())) {
+            List<ScheduledServer> items = scheduledByTv.get(hot.getKey());
+            if (items == null) {
+                continue;
+            }
+            for (ScheduledServer item : items) {
+                long target = now + nextIntervalMillis(item, hot.getValue());
+                // 正在探测的调度项不在队列中，探测完成后会按新的热度重新计算
+                if (item.dueAt > target && queue.remove(item)) {
+                    item.dueAt = target;
+                    queue.put(item);
+                }
+            }
+        }
+    }
+
+    /**
+     * 探测一个到期的直播源，完成后计算下一次探测时间重新入队
+     * @param item 调度项
+     */
+    private void probe(ScheduledServer item) {
+        ServerInfo serverInfo = item.serverInfo;
+        // 需要代理的直播源不进行测试，默认可用
+        if (IptvConfig.checkNeedProxy(serverInfo.getUrl())) {
+            serverInfo.addRecord(true);
+            reschedule(item);
+            return;
+        }
+        BreakerState state = serverInfo.getBreakerState();
+        if (state == BreakerState.OPEN) {
+            reschedule(item);
+            return;
+        }
+        rateLimiter.acquire();
+        probeCount.incrementAndGet();
+        probeExecutor.submit(serverInfo.getUrl(), state == BreakerState.HALF_OPEN)
+                .thenAccept(r -> {
+                    serverInfo.addRecord(r.isSuccess(), r.getLatencyMillis());
+                    IptvConfig.reSort(item.tvKey);
+                })
+                .whenComplete((v, e) -> reschedule(item));
+    }
+
+    private void reschedule(ScheduledServer item) {
+        if (item.cancelled || !running) {
+            return;
+        }
+        item.dueAt = System.currentTimeMillis() + nextIntervalMillis(item, demandStats.getDemand(item.tvKey));
+        queue.put(item);
+    }
+
+    /**
+     * 计算下一次探测的间隔：
+     * 熔断中的直播源等到熔断结束；
+     * 一直成功或一直失败的直播源间隔最长，成功率在 50% 附近摇摆的直播源间隔最短；
+     * 电视台的请求数越多间隔越短，按请求数的对数缩减，避免少数电视台占满探测速率
+     * @param item 调度项
+     * @param demand 电视台在统计窗口内的请求数
+     * @return 间隔（毫秒）
+     */
+    private long nextIntervalMillis(ScheduledServer item, long demand) {
+        ServerInfo serverInfo = item.serverInfo;
+        long now = System.currentTimeMillis();
+        if (serverInfo.getBreakerState() == BreakerState.OPEN) {
+            return Math.max(0, serverInfo.getOpenUntil() - now);
+        }
+        long min = TimeUnit.SECONDS.toMillis(probeProperties.getMinIntervalSeconds());
+        long max = TimeUnit.SECONDS.toMillis(probeProperties.getMaxIntervalSeconds());
+        double instability = 1 - Math.abs(2 * serverInfo.getSuccessRate() - 1);
+        if (!serverInfo.isLastProbeSuccess()) {
+            instability = Math.max(instability, 0.5);
+        }
+        double interval = max - (max - min) * instability;
+        interval /= 1 + Math.log(1 + demand) / Math.log(2);
+        interval *= 1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return (long) Math.max(min, interval);
+    }
+
+    /**
+     * 每隔 30 分钟打印一次所有直播源的评分
+     */
+    @Scheduled(fixedRate = 30, timeUnit = TimeUnit.MINUTES, initialDelay = 30)
+    public void printScores() {
+        for (String tvKey : IptvConfig.getAllTypes()) {
+            printTvScore(tvKey);
         }
     }
 
@@ -73,13 +293,52 @@ public class ServerScoringJob {
      * 打印直播源得分
      * @param tvKey tvKey
      */
-    public void printTvScore(String tvKey) {
-        System.out.println("====== tvKey: " + tvKey + " ↓ ======");
+    private void printTvScore(String tvKey) {
         List<ServerInfo> servers = IptvConfig.getServers(tvKey);
+        if (servers == null) {
+            return;
+        }
+        log.info("====== tvKey: {} ↓ ======", tvKey);
         for (ServerInfo serverInfo : servers) {
-            int score = (int) Math.ceil(serverInfo.getSuccessRate() * 100);
-            System.out.printf("== [score]: %d [url]: %s ==\n", score, serverInfo.getUrl());
+            int score = (int) Math.ceil(serverInfo.getScore() * 100);
+            int successRate = (int) Math.ceil(serverInfo.getSuccessRate() * 100);
+            log.info("== [score]: {} [success]: {}% [p50]: {}ms [p90]: {}ms [breaker]: {} [url]: {} ==", score, successRate,
+                    serverInfo.getLatencyPercentile(0.5), serverInfo.getLatencyPercentile(0.9),
+                    serverInfo.getBreakerState(), serverInfo.getUrl());
+        }
+        log.info("====== tvKey: {} ↑ ======", tvKey);
+    }
+
+    /**
+     * 一个直播源的调度项，按下一次探测时间排序
+     */
+    private static class ScheduledServer implements Delayed {
+
+        private final String tvKey;
+        private final ServerInfo serverInfo;
+        /**
+         * 下一次探测的时间戳
+         */
+        private volatile long dueAt;
+        /**
+         * 直播源已经从配置中移除或者被新的调度项替换
+         */
+        private volatile boolean cancelled;
+
+        ScheduledServer(String tvKey, ServerInfo serverInfo, long dueAt) {
+            this.tvKey = tvKey;
+            this.serverInfo = serverInfo;
+            this.dueAt = dueAt;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed another) {
+            return Long.compare(dueAt, ((ScheduledServer) another).dueAt);
         }
-        System.out.println("====== tvKey: " + tvKey + " ↑ ======");
     }
 }
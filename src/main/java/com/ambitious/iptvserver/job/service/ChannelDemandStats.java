@@ -0,0 +1,90 @@
+package com.ambitious.iptvserver.job.service;
+
+import com.ambitious.iptvserver.config.IptvConfig;
+import com.ambitious.iptvserver.config.ProbeProperties;
+import com.ambitious.iptvserver.entity.ServerInfo;
+import com.ambitious.iptvserver.util.WindowedCounter;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.AbstractMap;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 统计每个电视台在最近一段时间内的请求数，
+ * 探测调度依据请求数分配探测频率，并提前探测热门电视台；
+ * 定期清理已经从配置中移除、或者整个窗口内都没有请求的电视台的计数
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Component
+public class ChannelDemandStats {
+
+    /**
+     * 统计窗口切分的桶数
+     */
+    private static final int BUCKET_COUNT = 12;
+
+    @Resource
+    private ProbeProperties probeProperties;
+    /**
+     * 电视台 => 请求计数
+     */
+    private final ConcurrentMap<String, WindowedCounter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次请求
+     * @param tvKey 电视台 key
+     */
+    public void record(String tvKey) {
+        counters.computeIfAbsent(tvKey, k -> new WindowedCounter(
+                TimeUnit.SECONDS.toMillis(probeProperties.getDemandWindowSeconds()), BUCKET_COUNT)).increment();
+    }
+
+    /**
+     * 获取电视台在统计窗口内的请求数
+     * @param tvKey 电视台 key
+     * @return 请求数
+     */
+    public long getDemand(String tvKey) {
+        WindowedCounter counter = counters.get(tvKey);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * 清理不在当前配置中、或者统计窗口内没有请求的电视台的计数，
+     * 与并发的 record 竞争时最多丢失一次计数
+     */
+    @Scheduled(fixedDelayString = "${iptv.probe.demand-window-seconds:3600}",
+            initialDelayString = "${iptv.probe.demand-window-seconds:3600}", timeUnit = TimeUnit.SECONDS)
+    public void prune() {
+        long now = System.currentTimeMillis();
+        Map<String, List<ServerInfo>> servers = IptvConfig.getSnapshot().getServers();
+        for (String tvKey : counters.keySet()) {
+            counters.computeIfPresent(tvKey,
+                    (k, counter) -> !servers.containsKey(k) || counter.sum(now) == 0 ? null : counter);
+        }
+    }
+
+    /**
+     * 获取请求数最多的电视台
+     * @param limit 最多返回的个数
+     * @return 电视台 key => 请求数，按请求数从高到低排列，不包含没有请求的电视台
+     */
+    public List<Map.Entry<String, Long>> getHottest(int limit) {
+        long now = System.currentTimeMillis();
+        return counters.entrySet().stream()
+                .map(e -> (Map.Entry<String, Long>) new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue().sum(now)))
+                .filter(e -> e.getValue() > 0)
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,195 @@
+package com.ambitious.iptvserver.job.service;
+
+import cn.hutool.core.util.StrUtil;
+import com.ambitious.iptvserver.config.ProbeProperties;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * 负责启动并回收 ffmpeg 进程，
+ * 限制同时存活的进程数，超过截止时间或提前得到结果时立即结束进程
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Component
+@Slf4j
+public class FfmpegProcessRunner implements InitializingBean, DisposableBean {
+
+    @Resource
+    private ProbeProperties probeProperties;
+    /**
+     * 进程槽位，限制同时存活的 ffmpeg 进程数
+     */
+    private Semaphore slots;
+    @Resource
+    private MeterRegistry meterRegistry;
+    /**
+     * 等待进程槽位的耗时
+     */
+    private Timer slotWait;
+    /**
+     * 负责在截止时间到达时结束进程
+     */
+    private ScheduledExecutorService reaper;
+    /**
+     * 当前存活的进程
+     */
+    private final Set<Process> liveProcesses = ConcurrentHashMap.newKeySet();
+    /**
+     * 启动过的进程数
+     */
+    private final AtomicLong startedCount = new AtomicLong();
+    /**
+     * 因为超时被结束的进程数
+     */
+    private final AtomicLong timeoutCount = new AtomicLong();
+    /**
+     * 被主动结束的进程数（包括超时和提前得到结果）
+     */
+    private final AtomicLong killCount = new AtomicLong();
+    /**
+     * 等待不到进程槽位而放弃的次数
+     */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    @Override
+    public void afterPropertiesSet() {
+        slots = new Semaphore(probeProperties.getFfmpegMaxProcesses(), true);
+        slotWait = Timer.builder("iptv.ffmpeg.slot.wait")
+                .description("等待 ffmpeg 进程槽位的耗时")
+                .register(meterRegistry);
+        Gauge.builder("iptv.ffmpeg.live", liveProcesses, Set::size).register(meterRegistry);
+        FunctionCounter.builder("iptv.ffmpeg.started", startedCount, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("iptv.ffmpeg.timeouts", timeoutCount, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("iptv.ffmpeg.kills", killCount, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("iptv.ffmpeg.rejected", rejectedCount, AtomicLong::get).register(meterRegistry);
+        reaper = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("ffmpeg-reaper").setDaemon(true).build());
+    }
+
+    @Override
+    public void destroy() {
+        reaper.shutdownNow();
+        liveProcesses.forEach(this::kill);
+    }
+
+    /**
+     * 启动进程并逐行读取输出，直到某一行满足条件、输出结束或超时
+     * @param command 要执行的命令
+     * @param lineMatcher 行匹配条件
+     * @return 是否有输出行满足条件
+     */
+    public boolean run(List<String> command, Predicate<String> lineMatcher) {
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(probeProperties.getFfmpegTimeoutSeconds());
+        long waitStart = System.nanoTime();
+        try {
+            boolean acquired = slots.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+            slotWait.record(System.nanoTime() - waitStart, TimeUnit.NANOSECONDS);
+            if (!acquired) {
+                rejectedCount.incrementAndGet();
+                log.warn("ffmpeg 进程数已达上限，放弃执行：{}", command);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        Process p = null;
+        ScheduledFuture<?> deadline = null;
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectErrorStream(true);
+            p = pb.start();
+            startedCount.incrementAndGet();
+            liveProcesses.add(p);
+            Process process = p;
+            deadline = reaper.schedule(() -> {
+                if (process.isAlive()) {
+                    timeoutCount.incrementAndGet();
+                    log.warn("ffmpeg 执行超时，强制结束：{}", command);
+                    kill(process);
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            // 进程被结束后输出流会关闭，readLine 随即返回
+            BufferedReader bf = new BufferedReader(new InputStreamReader(p.getInputStream()));
+            String line = bf.readLine();
+            while (StrUtil.isNotEmpty(line)) {
+                if (lineMatcher.test(line)) {
+                    return true;
+                }
+                line = bf.readLine();
+            }
+            return false;
+        } catch (Exception e) {
+            log.error("调用 ffmpeg 异常：{}", e.getMessage());
+            return false;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            if (p != null) {
+                if (p.isAlive()) {
+                    kill(p);
+                }
+                liveProcesses.remove(p);
+            }
+            slots.release();
+        }
+    }
+
+    /**
+     * 强制结束进程并回收
+     * ffmpeg 不会派生子进程，结束它本身即结束整个进程树
+     * @param p 进程
+     */
+    private void kill(Process p) {
+        killCount.incrementAndGet();
+        p.destroyForcibly();
+        try {
+            p.waitFor(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getStartedCount() {
+        return startedCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getKillCount() {
+        return killCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public int getLiveCount() {
+        return liveProcesses.size();
+    }
+}
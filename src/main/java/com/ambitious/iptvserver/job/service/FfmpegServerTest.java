@@ -1,12 +1,10 @@
 package com.ambitious.iptvserver.job.service;
 
-import cn.hutool.core.util.StrUtil;
-import lombok.extern.slf4j.Slf4j;
+import com.google.common.collect.Lists;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import javax.annotation.Resource;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -16,36 +14,24 @@ import java.util.regex.Pattern;
  * @date 2023/9/6
  */
 @Service
-@Slf4j
 public class FfmpegServerTest implements ServerTest {
 
+    /**
+     * ffmpeg 成功解析直播源后输出的行
+     */
+    private static final Pattern INPUT_PATTERN = Pattern.compile("Input(.*)from '(.+)':");
+
     @Value("${os}")
     private String os;
+    @Resource
+    private FfmpegProcessRunner processRunner;
 
     @Override
     public boolean test(String url) {
-        // 1 准备好正则表达式
-        String regex = "Input(.*)from '(.+)':";
-        Pattern pattern = Pattern.compile(regex);
-        // 2 调用 ffmpeg-mac，分析直播源的可用性
-        ProcessBuilder pb = new ProcessBuilder("./ffmpeg/ffmpeg-" + os, "-i", url);
-        pb.redirectErrorStream(true);
-        try {
-            Process p = pb.start();
-            BufferedReader bf = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            String line = bf.readLine();
-            while (StrUtil.isNotEmpty(line)) {
-                Matcher m = pattern.matcher(line);
-                if (m.matches() && url.equals(m.group(2))) {
-                    return true;
-                }
-                line = bf.readLine();
-            }
-            p.waitFor();
-        } catch (Exception e) {
-            log.error("调用 ffmpeg 异常：{}", e.getMessage());
-            return false;
-        }
-        return false;
+        // 调用 ffmpeg-mac，分析直播源的可用性，解析成功后立即结束进程
+        return processRunner.run(Lists.newArrayList("./ffmpeg/ffmpeg-" + os, "-i", url), line -> {
+            Matcher m = INPUT_PATTERN.matcher(line);
+            return m.matches() && url.equals(m.group(2));
+        });
     }
 }
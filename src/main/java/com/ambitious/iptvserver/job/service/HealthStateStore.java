@@ -0,0 +1,140 @@
+package com.ambitious.iptvserver.job.service;
+
+import cn.hutool.core.util.StrUtil;
+import com.ambitious.iptvserver.config.IptvConfig;
+import com.ambitious.iptvserver.config.ProbeProperties;
+import com.ambitious.iptvserver.entity.ServerInfo;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 将直播源的探测状态（评分、耗时统计、熔断状态）保存到本地二进制文件，
+ * 启动时在接收请求之前恢复，重启后不需要重新探测就能按评分选出直播源
+ * 文件格式：魔数、版本、记录数，之后每条记录为直播源地址加上 {@link ServerInfo#writeState} 写入的状态
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Service
+@Slf4j
+public class HealthStateStore implements InitializingBean, DisposableBean {
+
+    private static final int MAGIC = 0x49505456;
+    private static final int VERSION = 1;
+
+    /**
+     * 注入配置保证在直播源加载完成之后再恢复状态
+     */
+    @Resource
+    private IptvConfig iptvConfig;
+    @Resource
+    private ProbeProperties probeProperties;
+
+    @Override
+    public void afterPropertiesSet() {
+        load();
+    }
+
+    @Override
+    public void destroy() {
+        save();
+    }
+
+    @Scheduled(fixedDelayString = "${iptv.probe.health-save-seconds:300}",
+            initialDelayString = "${iptv.probe.health-save-seconds:300}", timeUnit = TimeUnit.SECONDS)
+    public void doJob() {
+        save();
+    }
+
+    /**
+     * 从文件中恢复探测状态，同一个地址出现在多个电视台时状态相同
+     */
+    public void load() {
+        Path path = statePath();
+        if (path == null || !Files.isRegularFile(path)) {
+            return;
+        }
+        Map<String, List<ServerInfo>> byUrl = Maps.newHashMap();
+        IptvConfig.getSnapshot().getServers().values().forEach(servers ->
+                servers.forEach(server -> byUrl.computeIfAbsent(server.getUrl(), k -> Lists.newArrayList()).add(server)));
+        int restored = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("探测状态文件格式不匹配，忽略：{}", path);
+                return;
+            }
+            int count = in.readInt();
+            // 状态先读到临时对象中，地址已经不在配置中的记录直接丢弃
+            ServerInfo tmp = new ServerInfo(null);
+            for (int i = 0; i < count; i++) {
+                String url = in.readUTF();
+                tmp.readState(in);
+                List<ServerInfo> servers = byUrl.get(url);
+                if (servers == null) {
+                    continue;
+                }
+                for (ServerInfo server : servers) {
+                    server.copyStateFrom(tmp);
+                    restored++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("读取探测状态文件失败：{}", e.getMessage());
+        }
+        IptvConfig.getAllTypes().forEach(IptvConfig::reSort);
+        log.info("已恢复 {} 个直播源的探测状态", restored);
+    }
+
+    /**
+     * 将所有直播源的探测状态写入文件，先写临时文件再替换
+     */
+    public synchronized void save() {
+        Path path = statePath();
+        if (path == null) {
+            return;
+        }
+        Map<String, ServerInfo> byUrl = Maps.newLinkedHashMap();
+        IptvConfig.getSnapshot().getServers().values().forEach(servers ->
+                servers.forEach(server -> byUrl.putIfAbsent(server.getUrl(), server)));
+        try {
+            Files.createDirectories(path.getParent());
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(byUrl.size());
+                for (ServerInfo server : byUrl.values()) {
+                    out.writeUTF(server.getUrl());
+                    server.writeState(out);
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("已保存 {} 个直播源的探测状态", byUrl.size());
+        } catch (IOException e) {
+            log.warn("保存探测状态文件失败：{}", e.getMessage());
+        }
+    }
+
+    private Path statePath() {
+        String file = probeProperties.getHealthStateFile();
+        return StrUtil.isBlank(file) ? null : Paths.get(file).toAbsolutePath();
+    }
+}
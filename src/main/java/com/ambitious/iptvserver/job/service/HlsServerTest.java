@@ -0,0 +1,155 @@
+package com.ambitious.iptvserver.job.service;
+
+import com.ambitious.iptvserver.util.M3u8Utils;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 不依赖 ffmpeg，直接在 JVM 中解析 HLS 直播源：
+ * 请求播放列表，主播放列表跟随到第一个子流，
+ * 再读取第一个分片的开头，校验 TS 同步字节或 fMP4 的 box 头
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Service
+@Slf4j
+public class HlsServerTest implements ServerTest {
+
+    /**
+     * 主播放列表最多跟随的层数
+     */
+    private static final int MAX_PLAYLIST_DEPTH = 3;
+    /**
+     * 播放列表允许的最大长度
+     */
+    private static final int MAX_PLAYLIST_BYTES = 512 * 1024;
+    /**
+     * 校验媒体数据时读取的字节数（两个 TS 包）
+     */
+    private static final int MEDIA_PROBE_BYTES = 188 * 2;
+
+    @Resource(name = "probeHttpClient")
+    private OkHttpClient httpClient;
+
+    @Override
+    public boolean test(String url) {
+        HttpUrl httpUrl = HttpUrl.parse(url);
+        if (httpUrl == null) {
+            return false;
+        }
+        try {
+            return probePlaylist(httpUrl, 0);
+        } catch (IOException e) {
+            log.debug("HLS 探测失败：{}，{}", url, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 探测播放列表，如果地址返回的直接是媒体流，则校验媒体数据
+     * @param url 地址
+     * @param depth 当前跟随的层数
+     * @return 是否可用
+     */
+    private boolean probePlaylist(HttpUrl url, int depth) throws IOException {
+        if (depth > MAX_PLAYLIST_DEPTH) {
+            return false;
+        }
+        Request request = new Request.Builder().url(url).get().build();
+        String playlist;
+        HttpUrl baseUrl;
+        try (Response response = httpClient.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                return false;
+            }
+            InputStream in = body.byteStream();
+            byte[] head = new byte[MEDIA_PROBE_BYTES];
+            int len = readFully(in, head);
+            if (!M3u8Utils.isPlaylist(head, len)) {
+                // 不是播放列表，可能是直接输出的 TS / FLV 流
+                return M3u8Utils.isMediaData(head, len);
+            }
+            playlist = readPlaylist(head, len, in);
+            // 以重定向后的地址作为相对路径的基准
+            baseUrl = response.request().url();
+        }
+        if (M3u8Utils.isMasterPlaylist(playlist)) {
+            HttpUrl variant = resolve(baseUrl, M3u8Utils.firstVariantUri(playlist));
+            return variant != null && probePlaylist(variant, depth + 1);
+        }
+        HttpUrl segment = resolve(baseUrl, M3u8Utils.firstSegmentUri(playlist));
+        return segment != null && probeSegment(segment, M3u8Utils.isEncrypted(playlist));
+    }
+
+    /**
+     * 读取分片开头的部分数据进行校验
+     * @param url 分片地址
+     * @param encrypted 分片是否加密，加密的分片无法校验内容，只要能读到数据即可
+     * @return 是否可用
+     */
+    private boolean probeSegment(HttpUrl url, boolean encrypted) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .header("Range", "bytes=0-" + (MEDIA_PROBE_BYTES - 1))
+                .get()
+                .build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                return false;
+            }
+            byte[] head = new byte[MEDIA_PROBE_BYTES];
+            int len = readFully(body.byteStream(), head);
+            return encrypted ? len > 0 : M3u8Utils.isMediaData(head, len);
+        }
+    }
+
+    /**
+     * 拼接已经读取的开头与剩余的播放列表内容
+     */
+    private String readPlaylist(byte[] head, int len, InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(head, 0, len);
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            if (out.size() + n > MAX_PLAYLIST_BYTES) {
+                throw new IOException("播放列表过大");
+            }
+            out.write(buf, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 尽可能读满缓冲区，直到流结束
+     * @return 实际读取的字节数
+     */
+    private int readFully(InputStream in, byte[] buf) throws IOException {
+        int total = 0;
+        while (total < buf.length) {
+            int n = in.read(buf, total, buf.length - total);
+            if (n == -1) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private HttpUrl resolve(HttpUrl base, String uri) {
+        return uri == null ? null : base.resolve(uri);
+    }
+}
@@ -0,0 +1,25 @@
+package com.ambitious.iptvserver.job.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 单次探测的结果
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Getter
+@AllArgsConstructor
+public class ProbeResult {
+
+    public static final ProbeResult FAILED = new ProbeResult(false, -1);
+
+    /**
+     * 是否可用
+     */
+    private final boolean success;
+    /**
+     * 探测耗时（毫秒），近似于播放器的启动耗时，失败时为 -1
+     */
+    private final long latencyMillis;
+}
@@ -0,0 +1,368 @@
+package com.ambitious.iptvserver.job.service;
+
+import com.ambitious.iptvserver.config.IptvConfig;
+import com.ambitious.iptvserver.config.ProbeProperties;
+import com.ambitious.iptvserver.config.ThreadFactories;
+import com.ambitious.iptvserver.entity.BreakerState;
+import com.ambitious.iptvserver.entity.ServerInfo;
+import com.ambitious.iptvserver.util.SingleFlight;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.HttpUrl;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 并发探测直播源，
+ * 全局并发数由工作线程数限制，同一主机的并发数由主机队列限制，
+ * 每次探测都有独立的超时时间，超时视为探测失败；
+ * 半开状态的直播源优先探测，熔断中的直播源不探测
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Service
+@Slf4j
+public class ServerProbeExecutor implements InitializingBean, DisposableBean {
+
+    @Resource
+    private ProbeProperties probeProperties;
+    @Resource(name = "${iptv.probe.server-test:ffmpegServerTest}")
+    private ServerTest serverTest;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private ThreadFactories threadFactories;
+    /**
+     * 探测任务在主机队列以及工作线程池中等待的耗时
+     */
+    private Timer queueWait;
+    /**
+     * 执行探测的工作线程池
+     */
+    private ExecutorService workers;
+    /**
+     * 负责触发探测超时
+     */
+    private ScheduledExecutorService watchdog;
+    /**
+     * 每个主机对应一个排队队列，队列空闲（没有运行中以及排队中的任务）后移除；
+     * 同时需要主机队列的锁时，先获取 lanes 的锁
+     */
+    private final Map<String, HostLane> lanes = Maps.newHashMap();
+    /**
+     * 探测任务的提交序号，同优先级的任务按序号排队
+     */
+    private final AtomicLong sequence = new AtomicLong();
+    /**
+     * 合并同一个直播源地址的并发探测
+     */
+    private final SingleFlight<String, ProbeResult> urlFlight = new SingleFlight<>();
+    /**
+     * 合并同一个电视台的并发探测
+     */
+    private final SingleFlight<String, Void> tvFlight = new SingleFlight<>();
+
+    @Override
+    public void afterPropertiesSet() {
+        workers = new ThreadPoolExecutor(probeProperties.getThreads(), probeProperties.getThreads(),
+                0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                threadFactories.newFactory("server-probe-"));
+        watchdog = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("server-probe-watchdog").setDaemon(true).build());
+        queueWait = Timer.builder("iptv.probe.queue.wait")
+                .description("探测任务排队等待的耗时")
+                .register(meterRegistry);
+        Gauge.builder("iptv.probe.inflight", urlFlight, SingleFlight::getInFlight).register(meterRegistry);
+    }
+
+    @Override
+    public void destroy() {
+        workers.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * 提交一个探测任务，同一个地址正在探测时直接复用它的结果
+     * @param url 直播源地址
+     * @return 探测结果，超时或异常时为失败
+     */
+    public CompletableFuture<ProbeResult> submit(String url) {
+        return submit(url, false);
+    }
+
+    /**
+     * 提交一个探测任务，同一个地址正在探测时直接复用它的结果
+     * @param url 直播源地址
+     * @param urgent 是否优先探测
+     * @return 探测结果，超时或异常时为失败
+     */
+    public CompletableFuture<ProbeResult> submit(String url, boolean urgent) {
+        return urlFlight.execute(url, () -> doSubmit(url, urgent));
+    }
+
+    private CompletableFuture<ProbeResult> doSubmit(String url, boolean urgent) {
+        CompletableFuture<ProbeResult> result = new CompletableFuture<>();
+        ProbeTask task = new ProbeTask(url, urgent, sequence.incrementAndGet(), result);
+        HostLane lane;
+        boolean runNow;
+        // 在 lanes 的锁内入队，避免队列在入队之前因为空闲被移除
+        synchronized (lanes) {
+            lane = lanes.computeIfAbsent(hostOf(url), HostLane::new);
+            runNow = lane.enqueue(task);
+        }
+        if (runNow) {
+            lane.dispatch(task);
+        }
+        return result;
+    }
+
+    /**
+     * 探测某个电视台的所有直播源，全部完成后记录结果并依据评分重新排序，
+     * 熔断中的直播源跳过，半开状态的直播源优先探测，
+     * 同一个电视台正在探测时直接复用它的结果
+     * @param tvKey 电视台 key
+     * @return 探测完成的信号
+     */
+    public CompletableFuture<Void> submitTv(String tvKey) {
+        return tvFlight.execute(tvKey, () -> doSubmitTv(tvKey));
+    }
+
+    private CompletableFuture<Void> doSubmitTv(String tvKey) {
+        List<ServerInfo> servers = IptvConfig.getServers(tvKey);
+        if (servers == null || servers.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        List<CompletableFuture<Void>> results = Lists.newArrayList();
+        for (ServerInfo serverInfo : servers) {
+            // 如果是需要进行代理的直播源，就不进行测试
+            if (IptvConfig.checkNeedProxy(serverInfo.getUrl())) {
+                serverInfo.addRecord(true);
+                continue;
+            }
+            BreakerState state = serverInfo.getBreakerState();
+            if (state == BreakerState.OPEN) {
+                continue;
+            }
+            // 测试是否能够成功连接
+            results.add(submit(serverInfo.getUrl(), state == BreakerState.HALF_OPEN)
+                    .thenAccept(r -> serverInfo.addRecord(r.isSuccess(), r.getLatencyMillis())));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                .thenRun(() -> IptvConfig.reSort(tvKey));
+    }
+
+    public SingleFlight<String, ProbeResult> getUrlFlight() {
+        return urlFlight;
+    }
+
+    public SingleFlight<String, Void> getTvFlight() {
+        return tvFlight;
+    }
+
+    /**
+     * 解析直播源的主机，用于限制单个主机的并发
+     * @param url 直播源地址
+     * @return 主机名，无法解析时返回原地址
+     */
+    private static String hostOf(String url) {
+        HttpUrl httpUrl = HttpUrl.parse(url);
+        return httpUrl == null ? url : httpUrl.host() + ":" + httpUrl.port();
+    }
+
+    /**
+     * 在工作线程中执行探测
+     * @param task 探测任务
+     */
+    private void runProbe(ProbeTask task) {
+        ScheduledFuture<?> timeout = watchdog.schedule(task::expire, probeProperties.getTimeoutSeconds(), TimeUnit.SECONDS);
+        task.begin();
+        long start = System.currentTimeMillis();
+        queueWait.record(System.nanoTime() - task.enqueuedNanos, TimeUnit.NANOSECONDS);
+        String outcome = "error";
+        try {
+            boolean success = serverTest.test(task.url);
+            outcome = success ? "success" : "failure";
+            if (!task.result.complete(success ? new ProbeResult(true, System.currentTimeMillis() - start) : ProbeResult.FAILED)) {
+                outcome = "timeout";
+            }
+        } catch (Exception e) {
+            log.error("探测直播源异常：{}，{}", task.url, e.getMessage());
+            if (!task.result.complete(ProbeResult.FAILED)) {
+                outcome = "timeout";
+            }
+        } finally {
+            timeout.cancel(false);
+            task.end();
+            // 按探测实现以及探测结果（success、failure、timeout、error）区分
+            Timer.builder("iptv.probe")
+                    .description("直播源探测耗时")
+                    .tags("impl", serverTest.getClass().getSimpleName(), "outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.currentTimeMillis() - start, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 同一主机的探测队列，保证同时运行的探测数不超过 perHostLimit
+     */
+    private class HostLane {
+
+        private final String host;
+        private final Queue<ProbeTask> pending = new PriorityQueue<>();
+        private int running;
+
+        HostLane(String host) {
+            this.host = host;
+        }
+
+        /**
+         * 任务入队，没有达到并发上限时占用一个名额
+         * @return 是否可以立即执行
+         */
+        synchronized boolean enqueue(ProbeTask task) {
+            if (running >= probeProperties.getPerHostLimit()) {
+                pending.add(task);
+                return false;
+            }
+            running++;
+            return true;
+        }
+
+        private void dispatch(ProbeTask task) {
+            workers.execute(new LaneRunnable(this, task));
+        }
+
+        /**
+         * 一个探测结束，继续执行队列中的下一个，队列空闲后从 lanes 中移除
+         */
+        void next() {
+            ProbeTask next;
+            synchronized (lanes) {
+                synchronized (this) {
+                    next = pending.poll();
+                    if (next == null && --running == 0) {
+                        lanes.remove(host, this);
+                    }
+                }
+            }
+            if (next != null) {
+                dispatch(next);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return host;
+        }
+    }
+
+    /**
+     * 提交到工作线程池中的任务，按探测任务的优先级排队
+     */
+    private class LaneRunnable implements Runnable, Comparable<LaneRunnable> {
+
+        private final HostLane lane;
+        private final ProbeTask task;
+
+        LaneRunnable(HostLane lane, ProbeTask task) {
+            this.lane = lane;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                runProbe(task);
+            } finally {
+                lane.next();
+            }
+        }
+
+        @Override
+        public int compareTo(LaneRunnable another) {
+            return task.compareTo(another.task);
+        }
+    }
+
+    /**
+     * 单个探测任务，优先探测的任务排在前面，同优先级按提交顺序排列
+     */
+    private static class ProbeTask implements Comparable<ProbeTask> {
+
+        private final String url;
+        private final boolean urgent;
+        private final long seq;
+        private final CompletableFuture<ProbeResult> result;
+        /**
+         * 入队时间，用于统计排队耗时
+         */
+        private final long enqueuedNanos = System.nanoTime();
+        /**
+         * 正在执行探测的线程，探测结束后置空
+         */
+        private Thread runner;
+
+        ProbeTask(String url, boolean urgent, long seq, CompletableFuture<ProbeResult> result) {
+            this.url = url;
+            this.urgent = urgent;
+            this.seq = seq;
+            this.result = result;
+        }
+
+        @Override
+        public int compareTo(ProbeTask another) {
+            if (urgent != another.urgent) {
+                return urgent ? -1 : 1;
+            }
+            return Long.compare(seq, another.seq);
+        }
+
+        synchronized void begin() {
+            runner = Thread.currentThread();
+        }
+
+        /**
+         * 探测结束，清除超时可能残留的中断标记，避免影响工作线程的下一个任务
+         */
+        void end() {
+            synchronized (this) {
+                runner = null;
+            }
+            Thread.interrupted();
+        }
+
+        /**
+         * 探测超时，直接判定失败并尝试中断探测线程
+         */
+        synchronized void expire() {
+            if (result.complete(ProbeResult.FAILED)) {
+                log.warn("直播源探测超时：{}", url);
+            }
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+    }
+}
@@ -18,7 +18,7 @@ import java.io.IOException;
 @Service
 public class SimpleServerTest implements ServerTest {
 
-    @Resource
+    @Resource(name = "probeHttpClient")
     private OkHttpClient httpClient;
 
     @Override
@@ -0,0 +1,205 @@
+package com.ambitious.iptvserver.playlist;
+
+import cn.hutool.core.util.StrUtil;
+import com.ambitious.iptvserver.config.IptvConfig;
+import com.ambitious.iptvserver.entity.ChannelMeta;
+import com.ambitious.iptvserver.entity.ServersSnapshot;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 依据当前的直播源快照生成 M3U 频道列表：
+ * 按快照版本和分组缓存不含访问地址的列表模板，只有快照版本变化时才重新生成；
+ * 访问地址在输出时填入，填好的内容连同 gzip 压缩版本按访问地址缓存，
+ * 局域网地址和外网地址等少数几个访问地址交替请求时都能直接复用
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Service
+public class PlaylistService {
+
+    /**
+     * 同一个版本最多缓存的列表模板个数（每个分组各占一个）
+     */
+    private static final int MAX_CACHED = 64;
+    /**
+     * 每个列表模板最多缓存的访问地址个数
+     */
+    private static final int MAX_BASE_URLS = 8;
+
+    /**
+     * 当前版本的缓存，版本变化时整体替换
+     */
+    private volatile Generation generation = new Generation(-1);
+
+    /**
+     * 获取频道列表
+     * @param baseUrl 服务的访问地址，例如 http://192.168.1.2:9999
+     * @param group 只包含某个分组的频道，为空表示全部
+     * @return 生成好的频道列表
+     */
+    public RenderedPlaylist getPlaylist(String baseUrl, String group) {
+        ServersSnapshot snapshot = IptvConfig.getSnapshot();
+        Generation current = generation;
+        if (current.version != snapshot.getVersion()) {
+            current = new Generation(snapshot.getVersion());
+            generation = current;
+        }
+        String key = StrUtil.nullToEmpty(group);
+        Template template = current.templates.get(key);
+        if (template == null) {
+            template = render(snapshot, group);
+            if (current.templates.size() < MAX_CACHED) {
+                current.templates.putIfAbsent(key, template);
+            }
+        }
+        Template filling = template;
+        try {
+            return template.filled.get(baseUrl, () -> fill(filling, snapshot.getVersion(), baseUrl));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 生成列表模板，模板在每个访问地址的位置断开
+     */
+    private Template render(ServersSnapshot snapshot, String group) {
+        List<byte[]> parts = new ArrayList<>();
+        StringBuilder sb = new StringBuilder(snapshot.getServers().size() * 128);
+        sb.append("#EXTM3U\n");
+        for (String tvKey : snapshot.getServers().keySet()) {
+            ChannelMeta meta = snapshot.getChannels().get(tvKey);
+            if (StrUtil.isNotEmpty(group) && (meta == null || !group.equals(meta.getGroup()))) {
+                continue;
+            }
+            sb.append("#EXTINF:-1");
+            String name = tvKey;
+            if (meta != null) {
+                appendAttribute(sb, "tvg-id", meta.getTvgId());
+                appendAttribute(sb, "tvg-name", meta.getName());
+                appendAttribute(sb, "tvg-logo", meta.getLogo());
+                appendAttribute(sb, "group-title", meta.getGroup());
+                name = StrUtil.isNotBlank(meta.getName()) ? meta.getName() : tvKey;
+            } else {
+                appendAttribute(sb, "tvg-name", tvKey);
+            }
+            sb.append(',').append(name).append('\n');
+            parts.add(sb.toString().getBytes(StandardCharsets.UTF_8));
+            sb.setLength(0);
+            sb.append("/iptv?type=").append(encode(tvKey)).append('\n');
+        }
+        parts.add(sb.toString().getBytes(StandardCharsets.UTF_8));
+        return new Template(parts);
+    }
+
+    /**
+     * 在模板中填入访问地址
+     */
+    private RenderedPlaylist fill(Template template, long version, String baseUrl) {
+        byte[] base = baseUrl.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(template.length + base.length * (template.parts.size() - 1));
+        for (int i = 0; i < template.parts.size(); i++) {
+            if (i > 0) {
+                out.write(base, 0, base.length);
+            }
+            byte[] part = template.parts.get(i);
+            out.write(part, 0, part.length);
+        }
+        byte[] body = out.toByteArray();
+        String hash = Hashing.murmur3_128().hashBytes(body).toString();
+        return new RenderedPlaylist(baseUrl, body, gzip(body), "\"" + version + "-" + hash + "\"");
+    }
+
+    private void appendAttribute(StringBuilder sb, String name, String value) {
+        if (StrUtil.isNotEmpty(value)) {
+            sb.append(' ').append(name).append("=\"").append(value.replace('"', '\'')).append('"');
+        }
+    }
+
+    private String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 某个快照版本下生成好的所有列表模板，分组 => 模板
+     */
+    private static class Generation {
+        private final long version;
+        private final ConcurrentMap<String, Template> templates = new ConcurrentHashMap<>();
+
+        Generation(long version) {
+            this.version = version;
+        }
+    }
+
+    /**
+     * 不含访问地址的列表模板，相邻两段之间填入访问地址
+     */
+    private static class Template {
+        private final List<byte[]> parts;
+        private final int length;
+        /**
+         * 访问地址 => 填好访问地址的列表
+         */
+        private final Cache<String, RenderedPlaylist> filled = CacheBuilder.newBuilder().maximumSize(MAX_BASE_URLS).build();
+
+        Template(List<byte[]> parts) {
+            this.parts = parts;
+            this.length = parts.stream().mapToInt(part -> part.length).sum();
+        }
+    }
+
+    /**
+     * 生成好的频道列表
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class RenderedPlaylist {
+        /**
+         * 填入的访问地址
+         */
+        private final String baseUrl;
+        private final byte[] body;
+        private final byte[] gzipBody;
+        /**
+         * 未压缩内容的 ETag，压缩内容的 ETag 在此基础上加上 -gzip 后缀
+         */
+        private final String etag;
+
+        public String getGzipEtag() {
+            return etag.substring(0, etag.length() - 1) + "-gzip\"";
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.ambitious.iptvserver.proxy;
+
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSource;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 以非阻塞的方式把数据写给客户端：
+ * 客户端可写时尽量写出数据，写不下时直接返回，等容器回调 onWritePossible；
+ * 数据源暂时没有数据时登记回调，有新数据后通过 AsyncContext 切回容器线程继续写，
+ * 整个过程中不会有线程因为等待客户端或者等待上游而阻塞
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Slf4j
+class AsyncStreamWriter implements WriteListener, AsyncListener {
+
+    /**
+     * 数据源
+     */
+    interface Source {
+
+        /**
+         * 非阻塞读取数据
+         * @param dst 目标缓冲区
+         * @return 读取的字节数，暂时没有数据时返回 0，数据结束时返回 -1
+         */
+        int read(byte[] dst);
+
+        /**
+         * 登记有新数据时的回调，只通知一次
+         * @param callback 回调
+         */
+        void awaitData(Runnable callback);
+
+        /**
+         * 写入结束（包括客户端断开）后释放数据源
+         */
+        void close();
+    }
+
+    private final AsyncContext ctx;
+    private final ServletOutputStream out;
+    private final Source source;
+    /**
+     * 写入缓冲区，不从缓冲区池中借用：客户端断开的回调可能与写入并发，归还后可能被其他请求拿去使用
+     */
+    private final byte[] buf;
+    private final Counter bytes;
+    /**
+     * 写入结束后的回调，负责结束异步请求
+     */
+    private final Runnable onFinish;
+    /**
+     * 是否已经结束写入，由 lock 保护
+     */
+    private boolean finished;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private AsyncStreamWriter(AsyncContext ctx, Source source, int bufferSize, Counter bytes, Runnable onFinish) throws IOException {
+        this.ctx = ctx;
+        this.out = ctx.getResponse().getOutputStream();
+        this.source = source;
+        this.buf = new byte[bufferSize];
+        this.bytes = bytes;
+        this.onFinish = onFinish;
+    }
+
+    /**
+     * 开始写入，调用前需要设置好响应状态以及响应头
+     * @param ctx 异步请求
+     * @param source 数据源
+     * @param bufferSize 写入缓冲区大小
+     * @param bytes 写出字节数的计数器
+     * @param onFinish 写入结束后的回调
+     */
+    static void start(AsyncContext ctx, Source source, int bufferSize, Counter bytes, Runnable onFinish) throws IOException {
+        AsyncStreamWriter writer = new AsyncStreamWriter(ctx, source, bufferSize, bytes, onFinish);
+        ctx.addListener(writer);
+        writer.out.setWriteListener(writer);
+    }
+
+    /**
+     * 内存中的数据
+     */
+    static Source of(byte[] data) {
+        return new Source() {
+            private int pos;
+
+            @Override
+            public int read(byte[] dst) {
+                if (pos >= data.length) {
+                    return -1;
+                }
+                int n = Math.min(dst.length, data.length - pos);
+                System.arraycopy(data, pos, dst, 0, n);
+                pos += n;
+                return n;
+            }
+
+            @Override
+            public void awaitData(Runnable callback) {
+                callback.run();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * 共享直播流的订阅
+     */
+    static Source of(StreamHub.Subscription subscription) {
+        return new Source() {
+            @Override
+            public int read(byte[] dst) {
+                return subscription.poll(dst);
+            }
+
+            @Override
+            public void awaitData(Runnable callback) {
+                subscription.awaitData(callback);
+            }
+
+            @Override
+            public void close() {
+                subscription.close();
+            }
+        };
+    }
+
+    /**
+     * 上游响应体：只读取已经缓冲的数据，缓冲区空了之后在 executor 中阻塞等待上游，
+     * 等待时不持有任何锁；响应只在没有线程等待上游时关闭，否则由等待的线程关闭。
+     * 每次等待只占用线程到下一批数据到达，上游卡住时最多占用到读取超时
+     * @param call 上游请求
+     * @param resp 上游响应，由数据源负责关闭
+     * @param executor 等待上游数据的线程池，拒绝执行时按上游结束处理
+     */
+    static Source of(Call call, Response resp, Executor executor) {
+        BufferedSource upstream = resp.body().source();
+        return new Source() {
+            /**
+             * 以下状态由 lock 保护
+             */
+            private final ReentrantLock lock = new ReentrantLock();
+            private boolean exhausted;
+            private boolean filling;
+            private boolean closed;
+
+            @Override
+            public int read(byte[] dst) {
+                lock.lock();
+                try {
+                    if (closed) {
+                        return -1;
+                    }
+                    Buffer buffer = upstream.getBuffer();
+                    if (buffer.size() > 0) {
+                        return buffer.read(dst, 0, (int) Math.min(dst.length, buffer.size()));
+                    }
+                    return exhausted ? -1 : 0;
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void awaitData(Runnable callback) {
+                lock.lock();
+                try {
+                    if (closed) {
+                        return;
+                    }
+                    filling = true;
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    executor.execute(() -> {
+                        boolean more = false;
+                        try {
+                            more = upstream.request(1);
+                        } catch (IOException e) {
+                            if (!call.isCanceled()) {
+                                log.debug("上游读取异常：{}，{}", call.request().url(), e.getMessage());
+                            }
+                        }
+                        filled(more, callback);
+                    });
+                } catch (RejectedExecutionException e) {
+                    // 等待上游的线程与队列都满了，按上游结束处理，让写出方把已缓冲的数据写完后结束响应
+                    log.warn("等待上游数据的线程池已满，断开代理：{}", call.request().url());
+                    call.cancel();
+                    filled(false, callback);
+                }
+            }
+
+            private void filled(boolean more, Runnable callback) {
+                boolean closeNow;
+                lock.lock();
+                try {
+                    exhausted = !more;
+                    filling = false;
+                    closeNow = closed;
+                } finally {
+                    lock.unlock();
+                }
+                if (closeNow) {
+                    resp.close();
+                }
+                callback.run();
+            }
+
+            @Override
+            public void close() {
+                boolean closeNow;
+                lock.lock();
+                try {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    closeNow = !filling;
+                } finally {
+                    lock.unlock();
+                }
+                call.cancel();
+                if (closeNow) {
+                    resp.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void onWritePossible() {
+        if (write()) {
+            finish();
+        }
+    }
+
+    /**
+     * 尽量写出数据，客户端断开后容器会回收请求对象，所以写入与结束写入需要互斥
+     * @return 是否需要结束写入
+     */
+    private boolean write() {
+        lock.lock();
+        try {
+            while (!finished && out.isReady()) {
+                int n = source.read(buf);
+                if (n < 0) {
+                    return true;
+                }
+                if (n == 0) {
+                    // 先把已经写出的数据推给客户端，推不完时等容器回调
+                    out.flush();
+                    if (out.isReady()) {
+                        source.awaitData(this::resume);
+                    }
+                    return false;
+                }
+                out.write(buf, 0, n);
+                bytes.increment(n);
+            }
+        } catch (IOException e) {
+            log.debug("客户端已断开：{}", e.getMessage());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+        return false;
+    }
+
+    /**
+     * 有新数据后切回容器线程继续写
+     */
+    private void resume() {
+        lock.lock();
+        try {
+            if (finished) {
+                return;
+            }
+            try {
+                ctx.start(this::onWritePossible);
+                return;
+            } catch (IllegalStateException e) {
+                // 请求已经结束
+            }
+        } finally {
+            lock.unlock();
+        }
+        finish();
+    }
+
+    /**
+     * 结束写入，只会执行一次；释放数据源以及回调不持有锁，避免与观众的回调互相等待
+     */
+    private void finish() {
+        lock.lock();
+        try {
+            if (finished) {
+                return;
+            }
+            finished = true;
+        } finally {
+            lock.unlock();
+        }
+        source.close();
+        onFinish.run();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        log.debug("客户端写入异常：{}", t.getMessage());
+        finish();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        finish();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        finish();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        finish();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+}
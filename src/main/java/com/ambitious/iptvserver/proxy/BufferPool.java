@@ -0,0 +1,60 @@
+package com.ambitious.iptvserver.proxy;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 固定大小的字节缓冲区池，避免每次代理都重新分配缓冲区
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<byte[]> pool = new ConcurrentLinkedQueue<>();
+    /**
+     * 池中空闲的缓冲区数量，ConcurrentLinkedQueue 的 size 需要遍历，单独计数
+     */
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * @param bufferSize 单个缓冲区大小
+     * @param maxPooled 最多缓存的空闲缓冲区数量
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * 借出一个缓冲区，池为空时新分配
+     */
+    public byte[] acquire() {
+        byte[] buf = pool.poll();
+        if (buf == null) {
+            return new byte[bufferSize];
+        }
+        pooled.decrementAndGet();
+        return buf;
+    }
+
+    /**
+     * 归还缓冲区，池已满时直接丢弃
+     */
+    public void release(byte[] buf) {
+        if (buf == null || buf.length != bufferSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        pool.offer(buf);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
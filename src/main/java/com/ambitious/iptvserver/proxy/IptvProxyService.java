@@ -0,0 +1,625 @@
+package com.ambitious.iptvserver.proxy;
+
+import com.ambitious.iptvserver.config.IptvConfig;
+import com.ambitious.iptvserver.config.ProxyProperties;
+import com.ambitious.iptvserver.config.ThreadFactories;
+import com.ambitious.iptvserver.util.M3u8Utils;
+import com.google.common.collect.Sets;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.ByteString;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 以流的方式代理直播源：
+ * 请求以异步的方式处理，等待上游以及等待客户端时都不占用请求线程，
+ * 上游响应体边读边写给客户端，每个代理流只占用一个固定大小的缓冲区，
+ * 客户端断开时取消上游请求；
+ * m3u8 播放列表中的地址会被改写为代理地址，分片经过内存缓存后再返回，
+ * 持续的直播流由 {@link StreamHub} 共享给所有观众
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Service
+@Slf4j
+public class IptvProxyService implements InitializingBean, DisposableBean {
+
+    /**
+     * 代理接口的路径
+     */
+    private static final String PROXY_PATH = "/iptv/proxy?url=";
+    /**
+     * 播放列表中的分片改写为代理地址时附加的参数，只有带这个参数的请求才会经过分片缓存
+     */
+    public static final String SEGMENT_PARAM = "segment";
+    /**
+     * m3u8 播放列表的媒体类型
+     */
+    private static final String PLAYLIST_CONTENT_TYPE = "application/vnd.apple.mpegurl";
+    private static final ByteString PLAYLIST_HEADER = ByteString.encodeUtf8(M3u8Utils.PLAYLIST_HEADER);
+    /**
+     * 播放列表允许的最大长度
+     */
+    private static final int MAX_PLAYLIST_BYTES = 1024 * 1024;
+    /**
+     * 逐跳请求头，只对单个连接有效，不能转发给客户端
+     */
+    private static final Set<String> HOP_BY_HOP_HEADERS = Sets.newHashSet(
+            "connection", "keep-alive", "proxy-authenticate", "proxy-authorization",
+            "te", "trailer", "trailers", "transfer-encoding", "upgrade"
+    );
+
+    @Resource(name = "proxyHttpClient")
+    private OkHttpClient httpClient;
+    @Resource
+    private ProxyProperties proxyProperties;
+    @Resource
+    private SegmentCache segmentCache;
+    @Resource
+    private StreamHub streamHub;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private ThreadFactories threadFactories;
+    private BufferPool bufferPool;
+    /**
+     * 等待上游数据的线程池，线程数以及排队数都有上限，
+     * 代理流只在缓冲区读空时提交一次等待，收到数据后立即归还线程
+     */
+    private ThreadPoolExecutor upstreamReaders;
+    /**
+     * 正在进行中的代理请求数
+     */
+    private final AtomicInteger activeStreams = new AtomicInteger();
+    /**
+     * 写给客户端的字节数，按数据类型区分
+     */
+    private Counter segmentBytes;
+    private Counter playlistBytes;
+    private Counter streamBytes;
+    private Counter sharedBytes;
+
+    @Override
+    public void afterPropertiesSet() {
+        bufferPool = new BufferPool(proxyProperties.getBufferSize(), proxyProperties.getMaxPooledBuffers());
+        upstreamReaders = new ThreadPoolExecutor(proxyProperties.getUpstreamReadThreads(), proxyProperties.getUpstreamReadThreads(),
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(proxyProperties.getUpstreamReadQueue()),
+                threadFactories.newFactory("proxy-read-"));
+        upstreamReaders.allowCoreThreadTimeOut(true);
+        Gauge.builder("iptv.proxy.read.queue", upstreamReaders, executor -> executor.getQueue().size())
+                .description("排队等待上游数据的代理流数")
+                .register(meterRegistry);
+        Gauge.builder("iptv.proxy.active", activeStreams, AtomicInteger::get)
+                .description("正在进行中的代理请求数")
+                .register(meterRegistry);
+        segmentBytes = bytesCounter("segment");
+        playlistBytes = bytesCounter("playlist");
+        streamBytes = bytesCounter("stream");
+        sharedBytes = bytesCounter("shared");
+    }
+
+    @Override
+    public void destroy() {
+        upstreamReaders.shutdownNow();
+    }
+
+    private Counter bytesCounter(String kind) {
+        return Counter.builder("iptv.proxy.bytes")
+                .description("代理写给客户端的字节数")
+                .baseUnit("bytes")
+                .tag("kind", kind)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 代理请求直播源：请求线程只负责开启异步请求，
+     * 上游请求通过 OkHttp 异步发出，所有数据都以非阻塞的方式写给客户端，
+     * 不能共享的上游响应体在固定大小的线程池中等待上游数据，等待时不持有请求的锁
+     * @param url 直播源地址
+     * @param segment 是否是从播放列表改写而来的分片地址，只有这种地址会被缓存，
+     *                其他同样以 .ts 等结尾的地址可能是持续的直播流，直接转发
+     * @param request 客户端请求
+     */
+    public void proxy(String url, boolean segment, HttpServletRequest request) {
+        AsyncContext ctx = request.startAsync();
+        // 持续直播流没有时长限制，上游的超时由 OkHttp 控制
+        ctx.setTimeout(0);
+        activeStreams.incrementAndGet();
+        ProxyExchange exchange = new ProxyExchange(url, segment && SegmentCache.isSegment(url), ctx);
+        ctx.addListener(exchange);
+        try {
+            exchange.start();
+        } catch (RuntimeException e) {
+            exchange.fail(e);
+        }
+    }
+
+    private Request newRequest(String url) {
+        return new Request.Builder()
+                .url(url)
+                .headers(IptvConfig.getProxyHeaders(url))
+                .get()
+                .build();
+    }
+
+    /**
+     * 一次代理请求
+     */
+    private class ProxyExchange implements AsyncListener {
+
+        private final String url;
+        /**
+         * 是否经过分片缓存
+         */
+        private final boolean cacheable;
+        private final AsyncContext ctx;
+        private final HttpServletResponse response;
+        /**
+         * 正在进行的上游请求，客户端断开时取消
+         */
+        private volatile Call call;
+        /**
+         * 请求是否已经结束，由 lock 保护：请求结束后容器会回收请求对象，
+         * 回调线程中对响应的操作都要在锁内先确认请求还没有结束；
+         * 使用 ReentrantLock 而不是对象锁，虚拟线程在锁内等待时不会占住载体线程
+         */
+        private boolean finished;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        ProxyExchange(String url, boolean cacheable, AsyncContext ctx) {
+            this.url = url;
+            this.cacheable = cacheable;
+            this.ctx = ctx;
+            this.response = (HttpServletResponse) ctx.getResponse();
+        }
+
+        void start() {
+            // 1 分片优先从缓存中获取，并发请求同一个分片时只请求一次上游
+            if (cacheable) {
+                SegmentCache.CachedSegment segment = segmentCache.getIfPresent(url);
+                if (segment != null) {
+                    writeSegment(segment);
+                    return;
+                }
+                segmentCache.load(url, () -> fetchSegment(url)).whenComplete((loaded, e) -> {
+                    if (e != null) {
+                        fail(e);
+                    } else if (loaded != null) {
+                        writeSegment(loaded);
+                    } else {
+                        // 分片过大，不缓存，直接转发
+                        requestUpstream();
+                    }
+                });
+                return;
+            }
+            requestUpstream();
+        }
+
+        void requestUpstream() {
+            lock.lock();
+            try {
+                if (finished) {
+                    return;
+                }
+                // 2 已经有其他观众在看的持续直播流，直接加入
+                if (proxyProperties.isFanOut()) {
+                    StreamHub.Subscription subscription = streamHub.subscribe(url);
+                    if (subscription != null) {
+                        writeSubscription(subscription);
+                        return;
+                    }
+                }
+                // 3 请求上游
+                call = httpClient.newCall(newRequest(url));
+                call.enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        fail(e);
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response resp) {
+                        handleResponse(call, resp);
+                    }
+                });
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 处理上游响应：预读以及读取上游数据都不持有锁，只有写客户端响应时才加锁
+         */
+        private void handleResponse(Call call, Response resp) {
+            boolean handedOff = false;
+            try {
+                if (isFinished()) {
+                    return;
+                }
+                ResponseBody body = resp.body();
+                if (resp.code() != HttpStatus.OK.value() || body == null) {
+                    throw new RuntimeException("请求失败");
+                }
+                // 4 播放列表改写后返回，持续直播流共享分发，其他数据流式转发
+                if (proxyProperties.isRewritePlaylist() && isPlaylist(body)) {
+                    writePlaylist(resp.headers(), rewritePlaylist(resp, body));
+                    return;
+                }
+                if (proxyProperties.isFanOut() && body.contentLength() < 0 && StreamHub.isTransportStream(body)) {
+                    handedOff = true;
+                    writeSubscription(streamHub.publish(url, call, resp));
+                    return;
+                }
+                handedOff = writeUpstream(call, resp);
+            } catch (Exception e) {
+                fail(e);
+            } finally {
+                // 共享的上游响应由 StreamHub 负责关闭，转发中的上游响应由写入的数据源负责关闭
+                if (!handedOff) {
+                    resp.close();
+                }
+            }
+        }
+
+        private boolean isFinished() {
+            lock.lock();
+            try {
+                return finished;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void writePlaylist(Headers upstreamHeaders, byte[] rewritten) throws IOException {
+            lock.lock();
+            try {
+                if (finished) {
+                    return;
+                }
+                Headers headers = upstreamHeaders.newBuilder()
+                        .removeAll("Content-Length")
+                        .removeAll("Content-Encoding")
+                        .removeAll("Content-Type")
+                        .build();
+                response.setStatus(HttpStatus.OK.value());
+                copyHeaders(headers, response);
+                response.setContentType(PLAYLIST_CONTENT_TYPE);
+                response.setContentLength(rewritten.length);
+                AsyncStreamWriter.start(ctx, AsyncStreamWriter.of(rewritten), proxyProperties.getBufferSize(), playlistBytes, this::complete);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 直接转发上游响应体
+         * @return 上游响应是否已经交给写入的数据源
+         */
+        private boolean writeUpstream(Call call, Response resp) throws IOException {
+            lock.lock();
+            try {
+                if (finished) {
+                    return false;
+                }
+                response.setStatus(resp.code());
+                copyHeaders(resp.headers(), response);
+                AsyncStreamWriter.start(ctx, AsyncStreamWriter.of(call, resp, upstreamReaders),
+                        proxyProperties.getBufferSize(), streamBytes, this::complete);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void writeSegment(SegmentCache.CachedSegment segment) {
+            lock.lock();
+            try {
+                if (finished) {
+                    return;
+                }
+                try {
+                    response.setStatus(HttpStatus.OK.value());
+                    copyHeaders(segment.getHeaders(), response);
+                    response.setContentLength(segment.getBody().length);
+                    AsyncStreamWriter.start(ctx, AsyncStreamWriter.of(segment.getBody()), proxyProperties.getBufferSize(), segmentBytes, this::complete);
+                } catch (Exception e) {
+                    fail(e);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void writeSubscription(StreamHub.Subscription subscription) {
+            lock.lock();
+            try {
+                if (finished) {
+                    subscription.close();
+                    return;
+                }
+                try {
+                    response.setStatus(HttpStatus.OK.value());
+                    copyHeaders(subscription.getHeaders(), response);
+                    AsyncStreamWriter.start(ctx, AsyncStreamWriter.of(subscription), proxyProperties.getBufferSize(), sharedBytes, this::complete);
+                } catch (Exception e) {
+                    subscription.close();
+                    fail(e);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 代理失败，响应还没有提交时返回错误信息
+         * @param e 异常
+         */
+        private void fail(Throwable e) {
+            lock.lock();
+            try {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                log.debug("代理请求失败：{}，{}", url, cause.getMessage());
+                if (finished) {
+                    return;
+                }
+                try {
+                    if (!response.isCommitted()) {
+                        response.resetBuffer();
+                        response.setStatus(HttpStatus.BAD_GATEWAY.value());
+                        response.setContentType("text/plain;charset=UTF-8");
+                        response.getOutputStream().write(("请求异常：" + cause.getMessage()).getBytes(StandardCharsets.UTF_8));
+                    }
+                } catch (IOException | IllegalStateException ex) {
+                    log.debug("返回代理错误信息失败：{}", ex.getMessage());
+                } finally {
+                    complete();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 结束异步请求，只会执行一次
+         */
+        private void complete() {
+            lock.lock();
+            try {
+                if (markFinished()) {
+                    completeContext();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 标记请求结束
+         * @return 是否是第一次标记
+         */
+        private boolean markFinished() {
+            lock.lock();
+            try {
+                if (finished) {
+                    return false;
+                }
+                finished = true;
+                activeStreams.decrementAndGet();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void completeContext() {
+            try {
+                ctx.complete();
+            } catch (IllegalStateException e) {
+                // 容器已经结束了这个请求
+            }
+        }
+
+        /**
+         * 客户端断开或者出错时取消还没有返回的上游请求，只在容器的回调中调用
+         */
+        private void abort() {
+            // 先取消上游请求，让等待上游数据的线程尽快结束
+            Call pending = call;
+            if (pending != null) {
+                pending.cancel();
+            }
+            markFinished();
+            // 写入出错时请求可能已经标记结束，但仍然要在回调中结束请求，否则容器会转发到错误页面
+            completeContext();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            markFinished();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            abort();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            abort();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * 异步从上游完整读取一个分片用于缓存
+     * @param url 分片地址
+     * @return 分片
+     */
+    private CompletableFuture<SegmentCache.CachedSegment> fetchSegment(String url) {
+        CompletableFuture<SegmentCache.CachedSegment> future = new CompletableFuture<>();
+        httpClient.newCall(newRequest(url)).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response resp) {
+                try (Response closing = resp) {
+                    future.complete(readSegment(url, closing));
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 完整读取分片的响应体
+     * @param url 分片地址
+     * @param resp 上游响应
+     * @return 分片
+     */
+    private SegmentCache.CachedSegment readSegment(String url, Response resp) throws IOException {
+        int maxBytes = proxyProperties.getSegmentCacheMaxEntryBytes();
+        ResponseBody body = resp.body();
+        if (resp.code() != HttpStatus.OK.value() || body == null) {
+            throw new RuntimeException("请求失败");
+        }
+        if (body.contentLength() > maxBytes) {
+            throw new SegmentCache.SegmentTooLargeException(url);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(body.contentLength(), 0));
+        InputStream in = body.byteStream();
+        byte[] buf = bufferPool.acquire();
+        try {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                if (out.size() + n > maxBytes) {
+                    throw new SegmentCache.SegmentTooLargeException(url);
+                }
+                out.write(buf, 0, n);
+            }
+        } finally {
+            bufferPool.release(buf);
+        }
+        // 长度由缓存的数据决定，不保留上游的长度和编码
+        Headers headers = resp.headers().newBuilder()
+                .removeAll("Content-Length")
+                .removeAll("Content-Encoding")
+                .build();
+        return new SegmentCache.CachedSegment(headers, out.toByteArray());
+    }
+
+    /**
+     * 通过媒体类型或者响应开头判断是否是 m3u8 播放列表
+     * @param body 上游响应体
+     * @return 是否是播放列表
+     */
+    private boolean isPlaylist(ResponseBody body) throws IOException {
+        MediaType contentType = body.contentType();
+        if (contentType != null && contentType.toString().toLowerCase(Locale.ROOT).contains("mpegurl")) {
+            return true;
+        }
+        // 只预读文件头，不消费数据
+        BufferedSource source = body.source();
+        return source.rangeEquals(0, PLAYLIST_HEADER);
+    }
+
+    /**
+     * 将播放列表中的地址改写为代理地址
+     * @param resp 上游响应
+     * @param body 上游响应体
+     * @return 改写后的播放列表
+     */
+    private byte[] rewritePlaylist(Response resp, ResponseBody body) throws IOException {
+        if (body.source().request(MAX_PLAYLIST_BYTES + 1L)) {
+            throw new RuntimeException("播放列表过大");
+        }
+        String playlist = body.string();
+        // 相对路径以重定向后的地址为基准
+        HttpUrl base = resp.request().url();
+        return M3u8Utils.rewriteUris(playlist, uri -> toProxyUri(base, uri)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 将播放列表中的地址转换为代理地址，分片地址附加分片参数
+     * @param base 播放列表地址
+     * @param uri 原始地址（可能是相对路径）
+     * @return 代理地址，无法解析时原样返回
+     */
+    private String toProxyUri(HttpUrl base, String uri) {
+        HttpUrl resolved = base.resolve(uri);
+        if (resolved == null) {
+            return uri;
+        }
+        try {
+            String proxyUri = PROXY_PATH + URLEncoder.encode(resolved.toString(), "UTF-8");
+            return SegmentCache.isSegment(resolved.toString()) ? proxyUri + "&" + SEGMENT_PARAM + "=true" : proxyUri;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 拷贝上游响应头，过滤掉逐跳请求头以及 Connection 中声明的请求头
+     * @param headers 上游响应头
+     * @param response 客户端响应
+     */
+    private void copyHeaders(Headers headers, HttpServletResponse response) {
+        Set<String> excludes = Sets.newHashSet(HOP_BY_HOP_HEADERS);
+        for (String connection : headers.values("Connection")) {
+            for (String name : connection.split(",")) {
+                excludes.add(name.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        for (int i = 0; i < headers.size(); i++) {
+            String name = headers.name(i);
+            if (!excludes.contains(name.toLowerCase(Locale.ROOT))) {
+                response.addHeader(name, headers.value(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.ambitious.iptvserver.proxy;
+
+import com.ambitious.iptvserver.config.ProxyProperties;
+import com.ambitious.iptvserver.util.SingleFlight;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * 代理分片的内存缓存，只缓存代理播放列表中改写出来的分片地址，按总大小以及有效时长淘汰；
+ * 同一个分片的并发请求只会向上游请求一次
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Component
+public class SegmentCache implements InitializingBean {
+
+    /**
+     * 可以缓存的分片地址后缀
+     */
+    private static final Pattern SEGMENT_PATH_PATTERN = Pattern.compile(".*\\.(ts|m4s|mp4|m4a|m4v|aac|mp3|vtt|webvtt|key)$", Pattern.CASE_INSENSITIVE);
+
+    @Resource
+    private ProxyProperties proxyProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+    private Cache<String, CachedSegment> cache;
+    /**
+     * 正在加载中的分片
+     */
+    private final SingleFlight<String, CachedSegment> loading = new SingleFlight<>();
+
+    @Override
+    public void afterPropertiesSet() {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(proxyProperties.getSegmentCacheMaxBytes())
+                .weigher((String url, CachedSegment segment) -> segment.getBody().length)
+                .expireAfterWrite(proxyProperties.getSegmentCacheTtlSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, cache, "iptv.segment");
+    }
+
+    /**
+     * 按后缀判断一个地址是否是分片，只对代理播放列表中出现的地址使用：
+     * 单独请求的 .ts 等地址也可能是持续的直播流，不能据此缓存
+     * @param url 地址
+     * @return 是否是分片
+     */
+    public static boolean isSegment(String url) {
+        HttpUrl httpUrl = HttpUrl.parse(url);
+        return httpUrl != null && SEGMENT_PATH_PATTERN.matcher(httpUrl.encodedPath()).matches();
+    }
+
+    /**
+     * 从缓存中获取分片，不触发加载
+     * @param url 分片地址
+     * @return 分片，不在缓存中时返回空
+     */
+    public CachedSegment getIfPresent(String url) {
+        return cache.getIfPresent(url);
+    }
+
+    /**
+     * 异步加载分片并放入缓存，并发加载同一个分片时只会执行一次 loader
+     * @param url 分片地址
+     * @param loader 加载方法，分片过大时以 {@link SegmentTooLargeException} 结束
+     * @return 分片，分片过大无法缓存时结果为空
+     */
+    public CompletableFuture<CachedSegment> load(String url, Supplier<CompletableFuture<CachedSegment>> loader) {
+        return loading.execute(url, () -> loader.get().handle((segment, e) -> {
+            if (e == null) {
+                cache.put(url, segment);
+                return segment;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof SegmentTooLargeException) {
+                return null;
+            }
+            throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+        }));
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * 缓存的分片
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class CachedSegment {
+
+        private final Headers headers;
+        private final byte[] body;
+    }
+
+    /**
+     * 分片超过缓存上限
+     */
+    public static class SegmentTooLargeException extends IOException {
+
+        public SegmentTooLargeException(String url) {
+            super("分片过大，不进行缓存：" + url);
+        }
+    }
+}
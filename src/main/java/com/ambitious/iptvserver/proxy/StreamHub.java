@@ -0,0 +1,438 @@
+package com.ambitious.iptvserver.proxy;
+
+import com.ambitious.iptvserver.config.ProxyProperties;
+import com.ambitious.iptvserver.config.ThreadFactories;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 持续直播流（MPEG-TS）的共享分发：
+ * 同一个地址只建立一个上游连接，数据写入环形缓冲区，所有观众按各自的读取位置消费，新观众从 TS 包的开头开始读取；
+ * 观众以非阻塞的方式读取，没有新数据时登记回调，在有新数据时被通知，不需要为每个观众占用线程；
+ * 读取过慢、被上游数据追上的观众会被断开，最后一个观众离开时关闭上游连接
+ * @author ambitious
+ * @date 2026/10/18
+ */
+@Component
+@Slf4j
+public class StreamHub implements InitializingBean, DisposableBean {
+
+    /**
+     * TS 包的长度
+     */
+    private static final int TS_PACKET_SIZE = 188;
+    /**
+     * TS 包开头的同步字节，新观众从同步字节开始读取
+     */
+    private static final byte TS_SYNC_BYTE = 0x47;
+
+    @Resource
+    private ProxyProperties proxyProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private ThreadFactories threadFactories;
+    /**
+     * 当前正在分发的频道
+     */
+    private final ConcurrentMap<String, Channel> channels = new ConcurrentHashMap<>();
+    /**
+     * 负责从上游读取数据，每个频道一个线程
+     */
+    private ExecutorService pumps;
+    /**
+     * 因为读取过慢被断开的观众数
+     */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    @Override
+    public void afterPropertiesSet() {
+        pumps = threadFactories.newCachedPool("stream-hub-");
+        Gauge.builder("iptv.hub.channels", this, StreamHub::getChannelCount).register(meterRegistry);
+        Gauge.builder("iptv.hub.subscribers", this, StreamHub::getSubscriberCount).register(meterRegistry);
+        FunctionCounter.builder("iptv.hub.dropped", droppedCount, AtomicLong::get).register(meterRegistry);
+    }
+
+    @Override
+    public void destroy() {
+        channels.values().forEach(Channel::close);
+        pumps.shutdownNow();
+    }
+
+    /**
+     * 加入一个正在分发的频道
+     * @param url 直播源地址
+     * @return 订阅，频道不存在时返回空
+     */
+    public Subscription subscribe(String url) {
+        Channel channel = channels.get(url);
+        return channel == null ? null : channel.attach();
+    }
+
+    /**
+     * 使用已经建立的上游响应创建频道并加入，
+     * 如果其他请求已经抢先创建了同一个频道，就关闭这个响应，加入已有的频道
+     * @param url 直播源地址
+     * @param call 上游请求
+     * @param resp 上游响应，由频道负责关闭
+     * @return 订阅
+     */
+    public Subscription publish(String url, Call call, Response resp) {
+        Channel created = new Channel(url, call, resp);
+        while (true) {
+            Channel existing = channels.putIfAbsent(url, created);
+            if (existing == null) {
+                Subscription subscription = created.attach();
+                pumps.execute(created::pump);
+                log.info("开始共享分发直播流：{}", url);
+                return subscription;
+            }
+            Subscription subscription = existing.attach();
+            if (subscription != null) {
+                resp.close();
+                return subscription;
+            }
+            // 已有的频道正在关闭
+            channels.remove(url, existing);
+        }
+    }
+
+    /**
+     * 判断上游响应是否是 MPEG-TS 流，只有 TS 流可以让观众从任意一个包的开头加入：
+     * 响应类型声明为 mp2t，或者开头两个包的位置都是同步字节
+     * @param body 上游响应体，只预读不消费
+     * @return 是否是 TS 流
+     */
+    public static boolean isTransportStream(ResponseBody body) throws IOException {
+        MediaType contentType = body.contentType();
+        if (contentType != null && contentType.toString().toLowerCase(Locale.ROOT).contains("mp2t")) {
+            return true;
+        }
+        BufferedSource source = body.source();
+        return source.request(TS_PACKET_SIZE + 1L)
+                && source.getBuffer().getByte(0) == TS_SYNC_BYTE
+                && source.getBuffer().getByte(TS_PACKET_SIZE) == TS_SYNC_BYTE;
+    }
+
+    public int getChannelCount() {
+        return channels.size();
+    }
+
+    public int getSubscriberCount() {
+        return channels.values().stream().mapToInt(Channel::getSubscribers).sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * 一个共享的上游直播流
+     */
+    private class Channel {
+
+        private final String url;
+        private final Call call;
+        private final Response resp;
+        /**
+         * 环形缓冲区
+         */
+        private final byte[] ring;
+        /**
+         * 上游已经写入的总字节数
+         */
+        private long written;
+        private int subscribers;
+        private boolean closed;
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * 等待新数据的非阻塞观众的回调，通知一次后移除
+         */
+        private List<Runnable> waiters = new ArrayList<>();
+
+        Channel(String url, Call call, Response resp) {
+            this.url = url;
+            this.call = call;
+            this.resp = resp;
+            this.ring = new byte[proxyProperties.getFanOutBufferBytes()];
+        }
+
+        /**
+         * 从上游读取数据写入环形缓冲区，写入永远不会等待观众
+         */
+        void pump() {
+            ResponseBody body = resp.body();
+            byte[] buf = new byte[proxyProperties.getBufferSize()];
+            try (InputStream in = body.byteStream()) {
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    List<Runnable> notify;
+                    lock.lock();
+                    try {
+                        if (closed) {
+                            return;
+                        }
+                        write(buf, n);
+                        notify = takeWaiters();
+                    } finally {
+                        lock.unlock();
+                    }
+                    notify.forEach(Runnable::run);
+                }
+            } catch (IOException e) {
+                if (!call.isCanceled()) {
+                    log.warn("共享直播流读取异常：{}，{}", url, e.getMessage());
+                }
+            } finally {
+                close();
+                // 响应只在读取线程中关闭，其他线程只取消请求，避免与读取并发
+                resp.close();
+            }
+        }
+
+        private void write(byte[] buf, int n) {
+            int pos = (int) (written % ring.length);
+            int first = Math.min(n, ring.length - pos);
+            System.arraycopy(buf, 0, ring, pos, first);
+            if (first < n) {
+                System.arraycopy(buf, first, ring, 0, n - first);
+            }
+            written += n;
+        }
+
+        /**
+         * 加入频道，从最新的数据开始读取，开始位置在第一次读取时对齐到 TS 包的开头
+         * @return 订阅，频道已经关闭时返回空
+         */
+        Subscription attach() {
+            lock.lock();
+            try {
+                if (closed) {
+                    return null;
+                }
+                subscribers++;
+                return new Subscription(this, Math.max(0, written - 2L * TS_PACKET_SIZE));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 观众离开，最后一个观众离开时关闭频道
+         */
+        void detach() {
+            boolean last;
+            lock.lock();
+            try {
+                subscribers--;
+                last = subscribers <= 0;
+            } finally {
+                lock.unlock();
+            }
+            if (last) {
+                close();
+            }
+        }
+
+        private List<Runnable> takeWaiters() {
+            if (waiters.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<Runnable> taken = waiters;
+            waiters = new ArrayList<>();
+            return taken;
+        }
+
+        /**
+         * 非阻塞读取数据
+         * @param subscription 订阅
+         * @param dst 目标缓冲区
+         * @return 读取的字节数，暂时没有新数据时返回 0，频道关闭或者观众被断开时返回 -1
+         */
+        int poll(Subscription subscription, byte[] dst) {
+            lock.lock();
+            try {
+                if (!hasData(subscription)) {
+                    return closed ? -1 : 0;
+                }
+                return copy(subscription, dst);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 登记有新数据时的回调，如果已经有新数据或者频道已经关闭，直接在当前线程回调
+         * @param subscription 订阅
+         * @param callback 回调
+         */
+        void awaitData(Subscription subscription, Runnable callback) {
+            lock.lock();
+            try {
+                if (!hasData(subscription) && !closed) {
+                    waiters.add(callback);
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            callback.run();
+        }
+
+        /**
+         * 在持有锁的情况下判断观众是否有可以读取的数据
+         */
+        private boolean hasData(Subscription subscription) {
+            return subscription.synced ? subscription.cursor < written : sync(subscription);
+        }
+
+        /**
+         * 在持有锁的情况下把还没有对齐的观众移动到下一个 TS 包的开头：
+         * 同步字节以及它后面一个包长位置的字节都是 0x47 才算对齐，
+         * 暂时找不到时只保留最后一个包长的数据，等更多数据到达后继续查找
+         * @return 是否已经对齐并且有数据可以读取
+         */
+        private boolean sync(Subscription subscription) {
+            long start = Math.max(subscription.cursor, written - ring.length);
+            for (long pos = start; pos + TS_PACKET_SIZE < written; pos++) {
+                if (byteAt(pos) == TS_SYNC_BYTE && byteAt(pos + TS_PACKET_SIZE) == TS_SYNC_BYTE) {
+                    subscription.cursor = pos;
+                    subscription.synced = true;
+                    return true;
+                }
+            }
+            subscription.cursor = Math.max(start, written - TS_PACKET_SIZE);
+            return false;
+        }
+
+        private byte byteAt(long pos) {
+            return ring[(int) (pos % ring.length)];
+        }
+
+        /**
+         * 在持有锁的情况下拷贝数据，调用前需要确认有数据可以读取
+         * @return 读取的字节数，观众被断开时返回 -1
+         */
+        private int copy(Subscription subscription, byte[] dst) {
+            if (written - subscription.cursor > ring.length) {
+                droppedCount.incrementAndGet();
+                log.warn("观众读取过慢，断开连接：{}", url);
+                return -1;
+            }
+            int n = (int) Math.min(dst.length, written - subscription.cursor);
+            int pos = (int) (subscription.cursor % ring.length);
+            int first = Math.min(n, ring.length - pos);
+            System.arraycopy(ring, pos, dst, 0, first);
+            if (first < n) {
+                System.arraycopy(ring, 0, dst, first, n - first);
+            }
+            subscription.cursor += n;
+            return n;
+        }
+
+        void close() {
+            List<Runnable> notify;
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                notify = takeWaiters();
+            } finally {
+                lock.unlock();
+            }
+            notify.forEach(Runnable::run);
+            channels.remove(url, this);
+            call.cancel();
+            log.info("停止共享分发直播流：{}", url);
+        }
+
+        int getSubscribers() {
+            lock.lock();
+            try {
+                return subscribers;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 一个观众对频道的订阅
+     */
+    public static class Subscription implements AutoCloseable {
+
+        private final Channel channel;
+        /**
+         * 下一个要读取的字节位置
+         */
+        private long cursor;
+        /**
+         * 读取位置是否已经对齐到 TS 包的开头
+         */
+        private boolean synced;
+        private boolean closed;
+
+        private Subscription(Channel channel, long cursor) {
+            this.channel = channel;
+            this.cursor = cursor;
+        }
+
+        /**
+         * 上游响应头
+         */
+        public Headers getHeaders() {
+            return channel.resp.headers();
+        }
+
+        /**
+         * 非阻塞读取数据
+         * @param dst 目标缓冲区
+         * @return 读取的字节数，暂时没有新数据时返回 0，直播流结束或者读取过慢被断开时返回 -1
+         */
+        public int poll(byte[] dst) {
+            return channel.poll(this, dst);
+        }
+
+        /**
+         * 登记有新数据（或者直播流结束）时的回调，只通知一次，回调在上游读取线程中执行，不能阻塞
+         * @param callback 回调
+         */
+        public void awaitData(Runnable callback) {
+            channel.awaitData(this, callback);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                channel.detach();
+            }
+        }
+    }
+}
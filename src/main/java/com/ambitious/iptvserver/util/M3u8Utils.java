@@ -0,0 +1,194 @@
+package com.ambitious.iptvserver.util;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * m3u8 播放列表以及媒体分片的解析工具
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class M3u8Utils {
+
+    /**
+     * 播放列表的文件头
+     */
+    public static final String PLAYLIST_HEADER = "#EXTM3U";
+    /**
+     * 主播放列表中的子流标签
+     */
+    private static final String STREAM_INF_TAG = "#EXT-X-STREAM-INF";
+    /**
+     * 媒体播放列表中的加密标签
+     */
+    private static final Pattern KEY_METHOD_PATTERN = Pattern.compile("#EXT-X-KEY:.*METHOD=([A-Z0-9-]+)");
+    /**
+     * 标签中的 URI 属性，例如 #EXT-X-KEY、#EXT-X-MAP、#EXT-X-MEDIA
+     */
+    private static final Pattern URI_ATTRIBUTE_PATTERN = Pattern.compile("URI=\"([^\"]*)\"");
+    /**
+     * TS 包的长度以及同步字节
+     */
+    private static final int TS_PACKET_SIZE = 188;
+    private static final byte TS_SYNC_BYTE = 0x47;
+    /**
+     * fMP4 分片开头可能出现的 box 类型
+     */
+    private static final String[] MP4_BOX_TYPES = {"ftyp", "styp", "moof", "moov", "sidx", "prft", "emsg"};
+
+    /**
+     * 判断一段数据是否是 m3u8 播放列表的开头
+     * @param head 数据
+     * @param len 数据长度
+     * @return 是否是播放列表
+     */
+    public static boolean isPlaylist(byte[] head, int len) {
+        int offset = 0;
+        // 跳过 UTF-8 BOM 以及空白字符
+        if (len >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+            offset = 3;
+        }
+        while (offset < len && Character.isWhitespace(head[offset])) {
+            offset++;
+        }
+        byte[] header = PLAYLIST_HEADER.getBytes(StandardCharsets.US_ASCII);
+        if (len - offset < header.length) {
+            return false;
+        }
+        for (int i = 0; i < header.length; i++) {
+            if (head[offset + i] != header[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 判断是否是主播放列表（包含多个子流）
+     * @param playlist 播放列表内容
+     * @return 是否是主播放列表
+     */
+    public static boolean isMasterPlaylist(String playlist) {
+        return playlist.contains(STREAM_INF_TAG);
+    }
+
+    /**
+     * 判断媒体播放列表的分片是否被加密
+     * @param playlist 播放列表内容
+     * @return 是否加密
+     */
+    public static boolean isEncrypted(String playlist) {
+        Matcher m = KEY_METHOD_PATTERN.matcher(playlist);
+        while (m.find()) {
+            if (!"NONE".equals(m.group(1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取主播放列表中的第一个子流地址
+     * @param playlist 播放列表内容
+     * @return 子流地址（可能是相对路径），不存在时返回空
+     */
+    public static String firstVariantUri(String playlist) {
+        boolean afterStreamInf = false;
+        for (String line : playlist.split("\r?\n")) {
+            line = line.trim();
+            if (line.startsWith(STREAM_INF_TAG)) {
+                afterStreamInf = true;
+            } else if (afterStreamInf && isUriLine(line)) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取媒体播放列表中的第一个分片地址
+     * @param playlist 播放列表内容
+     * @return 分片地址（可能是相对路径），不存在时返回空
+     */
+    public static String firstSegmentUri(String playlist) {
+        for (String line : playlist.split("\r?\n")) {
+            line = line.trim();
+            if (isUriLine(line)) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 改写播放列表中的所有地址，包括地址行以及标签中的 URI 属性
+     * @param playlist 播放列表内容
+     * @param mapper 地址转换方法，传入原始地址（可能是相对路径），返回新的地址
+     * @return 改写后的播放列表
+     */
+    public static String rewriteUris(String playlist, Function<String, String> mapper) {
+        StringBuilder sb = new StringBuilder(playlist.length() * 2);
+        for (String line : playlist.split("\r?\n")) {
+            String trimmed = line.trim();
+            if (isUriLine(trimmed)) {
+                sb.append(mapper.apply(trimmed));
+            } else if (trimmed.startsWith("#") && trimmed.contains("URI=\"")) {
+                Matcher m = URI_ATTRIBUTE_PATTERN.matcher(trimmed);
+                StringBuffer tag = new StringBuffer();
+                while (m.find()) {
+                    m.appendReplacement(tag, Matcher.quoteReplacement("URI=\"" + mapper.apply(m.group(1)) + "\""));
+                }
+                m.appendTail(tag);
+                sb.append(tag);
+            } else {
+                sb.append(line);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 判断播放列表中的某一行是否是地址行
+     * @param line 行内容
+     * @return 是否是地址行
+     */
+    public static boolean isUriLine(String line) {
+        return StrUtil.isNotBlank(line) && !line.startsWith("#");
+    }
+
+    /**
+     * 校验媒体数据的开头是否是可识别的格式：
+     * MPEG-TS、fMP4、ID3 打包的音频、ADTS 音频、FLV
+     * @param head 数据
+     * @param len 数据长度
+     * @return 是否是合法的媒体数据
+     */
+    public static boolean isMediaData(byte[] head, int len) {
+        if (len <= 0) {
+            return false;
+        }
+        if (head[0] == TS_SYNC_BYTE) {
+            return len <= TS_PACKET_SIZE || head[TS_PACKET_SIZE] == TS_SYNC_BYTE;
+        }
+        if (len >= 8) {
+            String boxType = new String(head, 4, 4, StandardCharsets.US_ASCII);
+            for (String type : MP4_BOX_TYPES) {
+                if (type.equals(boxType)) {
+                    return true;
+                }
+            }
+        }
+        if (len >= 3) {
+            String magic = new String(head, 0, 3, StandardCharsets.US_ASCII);
+            if ("ID3".equals(magic) || "FLV".equals(magic)) {
+                return true;
+            }
+        }
+        return len >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xF6) == 0xF0;
+    }
+}
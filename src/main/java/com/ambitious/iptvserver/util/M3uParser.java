@@ -0,0 +1,182 @@
+package com.ambitious.iptvserver.util;
+
+import cn.hutool.core.util.StrUtil;
+import com.ambitious.iptvserver.entity.ChannelMeta;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.Getter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 逐行解析 M3U 直播源列表，不构建整个文档的对象树：
+ * 每个 #EXTINF 与它后面的第一个地址行组成一条直播源，
+ * 电视台依次按 tvg-name、tvg-id、标题分组，同一个电视台下重复的地址只保留一个
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class M3uParser {
+
+    private static final String EXTINF_TAG = "#EXTINF:";
+
+    /**
+     * 解析 M3U 直播源列表
+     * @param in 输入流，不负责关闭
+     * @return 解析结果
+     */
+    public static Result parse(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Map<String, Set<String>> servers = Maps.newLinkedHashMap();
+        Map<String, ChannelMeta> channels = Maps.newLinkedHashMap();
+        String line;
+        ExtInf pending = null;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.startsWith(EXTINF_TAG)) {
+                pending = parseExtInf(line);
+            } else if (M3u8Utils.isUriLine(line) && pending != null) {
+                if (pending.key != null) {
+                    servers.computeIfAbsent(pending.key, k -> Sets.newLinkedHashSet()).add(line);
+                    channels.putIfAbsent(pending.key, pending.meta);
+                }
+                pending = null;
+            }
+        }
+        Map<String, Object> rawMap = Maps.newLinkedHashMapWithExpectedSize(servers.size());
+        servers.forEach((key, urls) -> rawMap.put(key, Lists.newArrayList(urls)));
+        return new Result(rawMap, channels);
+    }
+
+    /**
+     * 解析 #EXTINF 行中的属性以及标题，例如：
+     * #EXTINF:-1 tvg-id="cctv1" tvg-name="CCTV1" tvg-logo="..." group-title="央视",CCTV-1 综合，
+     * 属性值也可以不带引号，此时到下一个空格或逗号为止
+     * @param line #EXTINF 行
+     * @return 电视台信息以及分组 key
+     */
+    static ExtInf parseExtInf(String line) {
+        ChannelMeta meta = new ChannelMeta();
+        int i = EXTINF_TAG.length();
+        int len = line.length();
+        // 跳过时长
+        while (i < len && line.charAt(i) != ' ' && line.charAt(i) != ',') {
+            i++;
+        }
+        while (i < len && line.charAt(i) != ',') {
+            if (line.charAt(i) == ' ') {
+                i++;
+                continue;
+            }
+            int eq = i;
+            while (eq < len && line.charAt(eq) != '=' && line.charAt(eq) != ' ' && line.charAt(eq) != ',') {
+                eq++;
+            }
+            if (eq >= len || line.charAt(eq) != '=') {
+                // 没有值的属性直接跳过
+                i = eq;
+                continue;
+            }
+            String name = line.substring(i, eq);
+            String value;
+            if (eq + 1 < len && line.charAt(eq + 1) == '"') {
+                int end = line.indexOf('"', eq + 2);
+                if (end < 0) {
+                    break;
+                }
+                value = line.substring(eq + 2, end);
+                i = end + 1;
+            } else {
+                // 没有引号的值到下一个空格或逗号为止
+                int end = eq + 1;
+                while (end < len && line.charAt(end) != ' ' && line.charAt(end) != ',') {
+                    end++;
+                }
+                value = line.substring(eq + 1, end);
+                i = end;
+            }
+            switch (name) {
+                case "tvg-id":
+                    meta.setTvgId(value);
+                    break;
+                case "tvg-name":
+                    meta.setName(value);
+                    break;
+                case "tvg-logo":
+                    meta.setLogo(value);
+                    break;
+                case "group-title":
+                    meta.setGroup(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+        // 属性没有解析完时（例如引号没有闭合），标题从后面的第一个逗号开始
+        int comma = line.indexOf(',', i);
+        String title = comma >= 0 ? line.substring(comma + 1).trim() : "";
+        String key = channelKey(meta.getName(), meta.getTvgId(), title);
+        if (StrUtil.isBlank(meta.getName())) {
+            // 没有 tvg-name 时使用标题作为显示名称
+            meta.setName(title);
+        }
+        return new ExtInf(key, meta);
+    }
+
+    /**
+     * 电视台的分组 key：tvg-name 优先，其次 tvg-id，最后是标题
+     * @return key，都为空时返回空
+     */
+    private static String channelKey(String tvgName, String tvgId, String title) {
+        if (StrUtil.isNotBlank(tvgName)) {
+            return tvgName;
+        }
+        if (StrUtil.isNotBlank(tvgId)) {
+            return tvgId;
+        }
+        return StrUtil.isNotBlank(title) ? title : null;
+    }
+
+    /**
+     * 一条 #EXTINF 的解析结果
+     */
+    static class ExtInf {
+        /**
+         * 电视台的分组 key
+         */
+        private final String key;
+        private final ChannelMeta meta;
+
+        ExtInf(String key, ChannelMeta meta) {
+            this.key = key;
+            this.meta = meta;
+        }
+    }
+
+    /**
+     * 解析结果
+     */
+    @Getter
+    public static class Result {
+        /**
+         * 电视台 key => 直播源地址列表，与 yml 配置加载出来的结构一致
+         */
+        private final Map<String, Object> rawMap;
+        /**
+         * 电视台 key => 电视台信息
+         */
+        private final Map<String, ChannelMeta> channels;
+
+        Result(Map<String, Object> rawMap, Map<String, ChannelMeta> channels) {
+            this.rawMap = rawMap;
+            this.channels = channels;
+        }
+    }
+}
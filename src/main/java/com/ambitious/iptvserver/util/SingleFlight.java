@@ -0,0 +1,72 @@
+package com.ambitious.iptvserver.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 合并同一个 key 的并发调用：
+ * key 对应的任务还在执行时，后来的调用方直接等待同一个结果，不会重复执行
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * 正在执行中的任务
+     */
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    /**
+     * 总调用次数
+     */
+    private final LongAdder calls = new LongAdder();
+    /**
+     * 被合并掉的调用次数
+     */
+    private final LongAdder deduplicated = new LongAdder();
+
+    /**
+     * 执行任务，如果 key 对应的任务正在执行，就直接返回它的结果
+     * @param key 任务 key
+     * @param action 真正执行任务的方法
+     * @return 任务结果
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> action) {
+        calls.increment();
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            deduplicated.increment();
+            return existing;
+        }
+        try {
+            action.get().whenComplete((v, e) -> {
+                // 先移除再完成，保证拿到结果之后的调用会重新执行
+                inFlight.remove(key, created);
+                if (e != null) {
+                    created.completeExceptionally(e);
+                } else {
+                    created.complete(v);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getDeduplicated() {
+        return deduplicated.sum();
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+}
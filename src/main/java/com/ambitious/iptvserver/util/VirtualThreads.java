@@ -0,0 +1,94 @@
+package com.ambitious.iptvserver.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 通过反射使用 JDK 21 的虚拟线程，项目仍按 Java 8 编译，
+ * 运行在不支持虚拟线程的 JDK 上时 {@link #isSupported()} 返回 false
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class VirtualThreads {
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+    private static final boolean SUPPORTED;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderFactory = null;
+        Method perTaskExecutor = null;
+        boolean supported = false;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            // 通过公开的接口调用，实现类不能被反射访问
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builderName = builderClass.getMethod("name", String.class, long.class);
+            builderFactory = builderClass.getMethod("factory");
+            perTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            // JDK 19、20 中虚拟线程是预览特性，没有开启时调用会抛出异常
+            ofVirtual.invoke(null);
+            supported = true;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // 当前 JDK 不支持虚拟线程
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_FACTORY = builderFactory;
+        NEW_THREAD_PER_TASK_EXECUTOR = perTaskExecutor;
+        SUPPORTED = supported;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * 当前 JDK 是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * 创建虚拟线程的线程工厂
+     * @param prefix 线程名称前缀，后面跟上从 0 开始的序号
+     * @return 线程工厂
+     */
+    public static ThreadFactory factory(String prefix) {
+        checkSupported();
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = BUILDER_NAME.invoke(builder, prefix, 0L);
+            return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new RuntimeException("创建虚拟线程工厂失败", e);
+        }
+    }
+
+    /**
+     * 每个任务使用一个新的虚拟线程的线程池
+     * @param prefix 线程名称前缀
+     * @return 线程池
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        ThreadFactory factory = factory(prefix);
+        try {
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new RuntimeException("创建虚拟线程池失败", e);
+        }
+    }
+
+    private static void checkSupported() {
+        if (!SUPPORTED) {
+            throw new UnsupportedOperationException("当前 JDK 不支持虚拟线程：" + System.getProperty("java.version"));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.ambitious.iptvserver.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 滑动窗口计数器，
+ * 窗口被切分成若干个时间桶，每个桶使用 LongAdder 计数，高并发下写入不会互相竞争，
+ * 桶过期后在下一次写入时清零复用
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class WindowedCounter {
+
+    private final long bucketMillis;
+    private final LongAdder[] buckets;
+    /**
+     * 每个桶当前对应的时间段编号
+     */
+    private final AtomicLongArray epochs;
+
+    /**
+     * @param windowMillis 窗口长度（毫秒）
+     * @param bucketCount 桶的个数
+     */
+    public WindowedCounter(long windowMillis, int bucketCount) {
+        this.bucketMillis = Math.max(1, windowMillis / bucketCount);
+        this.buckets = new LongAdder[bucketCount];
+        this.epochs = new AtomicLongArray(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new LongAdder();
+            epochs.set(i, -1);
+        }
+    }
+
+    public void increment() {
+        increment(System.currentTimeMillis());
+    }
+
+    public void increment(long now) {
+        long epoch = now / bucketMillis;
+        int idx = (int) (epoch % buckets.length);
+        long current = epochs.get(idx);
+        if (current != epoch && epochs.compareAndSet(idx, current, epoch)) {
+            // 抢到复用权的线程负责清零，其他线程的并发写入最多丢失少量计数
+            buckets[idx].reset();
+        }
+        buckets[idx].increment();
+    }
+
+    public long sum() {
+        return sum(System.currentTimeMillis());
+    }
+
+    /**
+     * 统计窗口内的总数
+     * @param now 当前时间戳
+     * @return 总数
+     */
+    public long sum(long now) {
+        long epoch = now / bucketMillis;
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            long e = epochs.get(i);
+            if (e > epoch - buckets.length && e <= epoch) {
+                total += buckets[i].sum();
+            }
+        }
+        return total;
+    }
+}
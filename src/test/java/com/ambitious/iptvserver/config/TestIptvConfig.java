@@ -0,0 +1,142 @@
+package com.ambitious.iptvserver.config;
+
+import com.ambitious.iptvserver.entity.ServersSnapshot;
+import com.google.common.collect.Lists;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试直播源配置的加载与刷新
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class TestIptvConfig {
+
+    private IptvConfig config;
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("iptv-config");
+        config = newConfig("");
+        IptvConfig.setSnapshot(ServersSnapshot.EMPTY);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        config.destroy();
+        IptvConfig.setSnapshot(ServersSnapshot.EMPTY);
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    private static IptvConfig newConfig(String snapshotFile) {
+        ConfigRefreshProperties refreshProperties = new ConfigRefreshProperties();
+        refreshProperties.setSnapshotFile(snapshotFile);
+        refreshProperties.setFetchTimeoutSeconds(5);
+        IptvConfig config = new IptvConfig();
+        config.setProxies(Lists.newArrayList());
+        ReflectionTestUtils.setField(config, "httpClient", new OkHttpClient.Builder()
+                .connectTimeout(1, TimeUnit.SECONDS)
+                .build());
+        ReflectionTestUtils.setField(config, "refreshProperties", refreshProperties);
+        ReflectionTestUtils.setField(config, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(config, "threadFactories", new ThreadFactories(false));
+        return config;
+    }
+
+    /**
+     * 一个没有监听的本地端口，连接会被拒绝
+     */
+    private static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Test
+    void testAllSourcesFailOnStartup() throws IOException {
+        config.setServerConfigSources(Lists.newArrayList(
+                dir.resolve("missing.yml").toString(),
+                "http://127.0.0.1:" + closedPort() + "/iptv-server.yml"));
+        assertThrows(RuntimeException.class, config::afterPropertiesSet);
+        assertTrue(IptvConfig.getSnapshot().getServers().isEmpty());
+    }
+
+    @Test
+    void testAllSourcesFailKeepsSnapshot() throws IOException {
+        Path file = dir.resolve("servers.yml");
+        Files.write(file, "CCTV1:\n  - http://example.com/cctv1.m3u8\n".getBytes());
+        config.setServerConfigSources(Lists.newArrayList(file.toString()));
+        config.afterPropertiesSet();
+        ServersSnapshot loaded = IptvConfig.getSnapshot();
+        assertEquals(1, loaded.getServers().size());
+
+        // 文件没有变化时视为未修改，不是失败
+        assertTrue(config.refreshServers());
+        // 唯一的来源读取失败时刷新失败，沿用原来的快照
+        Files.delete(file);
+        assertFalse(config.refreshServers());
+        assertSame(loaded, IptvConfig.getSnapshot());
+    }
+
+    @Test
+    void testPartialFailureAfterWarmStart() throws IOException {
+        Path yml = dir.resolve("a.yml");
+        Path m3u = dir.resolve("b.m3u");
+        Files.write(yml, "CCTV1:\n  - http://example.com/cctv1.m3u8\n".getBytes());
+        Files.write(m3u, ("#EXTM3U\n#EXTINF:-1 tvg-id=\"cctv5\" tvg-logo=\"http://example.com/5.png\" group-title=\"体育\",CCTV-5\n"
+                + "http://example.com/cctv5.m3u8\n").getBytes(StandardCharsets.UTF_8));
+        String snapshotFile = dir.resolve("snapshot.yml").toString();
+        config = newConfig(snapshotFile);
+        config.setServerConfigSources(Lists.newArrayList(yml.toString(), m3u.toString()));
+        config.afterPropertiesSet();
+        assertEquals(2, IptvConfig.getSnapshot().getServers().size());
+        config.destroy();
+
+        // 重启时从本地快照恢复，包括电视台信息
+        IptvConfig.setSnapshot(ServersSnapshot.EMPTY);
+        Files.delete(m3u);
+        config = newConfig(snapshotFile);
+        config.setServerConfigSources(Lists.newArrayList(yml.toString(), m3u.toString()));
+        config.afterPropertiesSet();
+        ServersSnapshot warm = IptvConfig.getSnapshot();
+        assertEquals(2, warm.getServers().size());
+        assertEquals("http://example.com/5.png", warm.getChannels().get("cctv5").getLogo());
+
+        // 一个来源读取失败时沿用它在快照中的内容，电视台不会丢失，本地快照也不会变小
+        Files.write(yml, "CCTV1:\n  - http://example.com/cctv1-new.m3u8\n".getBytes());
+        Files.setLastModifiedTime(yml, FileTime.fromMillis(System.currentTimeMillis() + 1000));
+        assertTrue(config.refreshServers());
+        ServersSnapshot refreshed = IptvConfig.getSnapshot();
+        assertEquals(2, refreshed.getServers().size());
+        assertEquals("http://example.com/cctv1-new.m3u8", refreshed.get("CCTV1").get(0).getUrl());
+        assertEquals("体育", refreshed.getChannels().get("cctv5").getGroup());
+
+        config.destroy();
+        IptvConfig.setSnapshot(ServersSnapshot.EMPTY);
+        config = newConfig(snapshotFile);
+        config.setServerConfigSources(Lists.newArrayList(yml.toString(), m3u.toString()));
+        config.afterPropertiesSet();
+        assertEquals(2, IptvConfig.getSnapshot().getServers().size());
+    }
+}
@@ -0,0 +1,82 @@
+package com.ambitious.iptvserver.entity;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试直播源评分
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class TestServerInfo {
+
+    @Test
+    void testLatencyAffectsScore() {
+        ServerInfo fast = new ServerInfo("http://fast.example.com/live.m3u8");
+        ServerInfo slow = new ServerInfo("http://slow.example.com/live.m3u8");
+        for (int i = 0; i < 10; i++) {
+            fast.addRecord(true, 150);
+            slow.addRecord(true, 4000);
+        }
+        assertEquals(1.0, fast.getSuccessRate(), 1e-9);
+        assertEquals(1.0, slow.getSuccessRate(), 1e-9);
+        assertTrue(fast.getScore() > slow.getScore());
+        assertEquals(200, fast.getLatencyPercentile(0.5));
+        assertEquals(5000, slow.getLatencyPercentile(0.9));
+    }
+
+    @Test
+    void testFailureLowersScore() {
+        ServerInfo server = new ServerInfo("http://a.example.com/live.m3u8");
+        assertEquals(-1, server.getLatencyPercentile(0.5));
+        server.addRecord(true, 100);
+        double before = server.getScore();
+        server.addRecord(false, -1);
+        assertTrue(server.getScore() < before);
+        assertFalse(server.isLastProbeSuccess());
+        assertEquals(2, server.getRequestTotalNum());
+        assertEquals(1, server.getRequestSuccessNum());
+
+        ServerInfo copy = new ServerInfo(server.getUrl());
+        copy.copyStateFrom(server);
+        assertEquals(server.getScore(), copy.getScore(), 1e-9);
+        assertEquals(100, copy.getLatencyPercentile(0.5));
+    }
+
+    @Test
+    void testBreakerOpensAfterConsecutiveFailures() {
+        ServerInfo server = new ServerInfo("http://b.example.com/live.m3u8");
+        server.addRecord(false, -1);
+        server.addRecord(false, -1);
+        assertEquals(BreakerState.CLOSED, server.getBreakerState());
+        server.addRecord(false, -1);
+        assertEquals(BreakerState.OPEN, server.getBreakerState());
+        assertEquals(3, server.getConsecutiveFailures());
+        server.addRecord(true, 100);
+        assertEquals(BreakerState.CLOSED, server.getBreakerState());
+        assertEquals(0, server.getConsecutiveFailures());
+    }
+
+    @Test
+    void testStateRoundTrip() throws IOException {
+        ServerInfo server = new ServerInfo("http://c.example.com/live.m3u8");
+        server.addRecord(true, 300);
+        server.addRecord(false, -1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        server.writeState(new DataOutputStream(bytes));
+
+        ServerInfo restored = new ServerInfo(server.getUrl());
+        restored.readState(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(server.getScore(), restored.getScore(), 1e-9);
+        assertEquals(server.getLastProbeTime(), restored.getLastProbeTime());
+        assertEquals(server.getConsecutiveFailures(), restored.getConsecutiveFailures());
+        assertEquals(500, restored.getLatencyPercentile(0.5));
+    }
+}
@@ -0,0 +1,81 @@
+package com.ambitious.iptvserver.epg;
+
+import com.google.common.collect.Maps;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试节目单解析以及时间索引
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class TestXmltvParser {
+
+    @Test
+    void testParseAndLookup() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<tv>\n" +
+                "  <channel id=\"1\"><display-name lang=\"zh\">CCTV1</display-name></channel>\n" +
+                "  <channel id=\"2\"><display-name>Unknown</display-name></channel>\n" +
+                "  <programme start=\"20261018100000 +0800\" stop=\"20261018110000 +0800\" channel=\"1\">" +
+                "<title>新闻</title><desc>早间新闻</desc></programme>\n" +
+                "  <programme start=\"20261018080000 +0800\" stop=\"20261018100000 +0800\" channel=\"1\">" +
+                "<title lang=\"zh\">早间</title><title lang=\"en\">Morning</title></programme>\n" +
+                "  <programme start=\"20261018110000 +0800\" channel=\"1\"><title>午间</title></programme>\n" +
+                "  <programme start=\"20261018100000 +0800\" stop=\"20261018110000 +0800\" channel=\"2\">" +
+                "<title>skip</title></programme>\n" +
+                "  <programme start=\"20261001100000 +0800\" stop=\"20261001110000 +0800\" channel=\"1\">" +
+                "<title>过期</title></programme>\n" +
+                "</tv>";
+        long ten = XmltvParser.parseTime("20261018100000 +0800");
+        assertEquals(XmltvParser.parseTime("20261018020000 +0000"), ten);
+        Map<String, XmltvParser.Builder> builders = Maps.newHashMap();
+        Map<String, List<String>> displayNames = Maps.newHashMap();
+        XmltvParser.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                ten - 86_400_000L, ten + 86_400_000L, builders, displayNames);
+        assertEquals(2, builders.size());
+        assertEquals(Collections.singletonList("CCTV1"), displayNames.get("1"));
+        EpgChannel channel = builders.get("1").build();
+        assertEquals(3, channel.size());
+        assertEquals("早间", channel.getTitle(0));
+
+        int now = channel.indexAt(ten + 60_000);
+        assertEquals("新闻", channel.getTitle(now));
+        assertEquals("早间新闻", channel.getDesc(now));
+        assertEquals("午间", channel.getTitle(channel.indexAfter(ten + 60_000)));
+        // 最后一个节目缺少结束时间，播放到当天结束
+        int last = channel.indexAt(ten + 3 * 3_600_000L);
+        assertEquals("午间", channel.getTitle(last));
+        assertEquals(XmltvParser.Builder.endOfDay(ten + 3_600_000L), channel.getStop(last));
+        assertTrue(channel.getStop(last) > channel.getStart(last));
+
+        int[] range = channel.range(ten - 60_000, ten + 60_000);
+        assertArrayEquals(new int[]{0, 2}, range);
+    }
+
+    @Test
+    void testLastProgrammeWithoutStop() throws Exception {
+        String xml = "<tv>\n" +
+                "  <programme start=\"20261018230000 +0800\" stop=\"20261018233000 +0800\" channel=\"1\"><title>晚间</title></programme>\n" +
+                "  <programme start=\"20261018233000 +0800\" channel=\"1\"><title>夜间</title></programme>\n" +
+                "</tv>";
+        long start = XmltvParser.parseTime("20261018233000 +0800");
+        Map<String, XmltvParser.Builder> builders = Maps.newHashMap();
+        XmltvParser.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                start - 86_400_000L, start + 86_400_000L, builders, Maps.newHashMap());
+        EpgChannel channel = builders.get("1").build();
+        assertEquals(start, channel.getStop(0));
+        // 没有结束时间的最后一个节目不会被当成已经结束
+        long stop = channel.getStop(1);
+        assertTrue(stop > start);
+        assertEquals(1, channel.indexAt(start + 60_000));
+        assertEquals(-1, channel.indexAt(stop));
+    }
+}
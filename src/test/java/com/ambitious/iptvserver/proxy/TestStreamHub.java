@@ -0,0 +1,167 @@
+package com.ambitious.iptvserver.proxy;
+
+import com.ambitious.iptvserver.config.ProxyProperties;
+import com.ambitious.iptvserver.config.ThreadFactories;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Pipe;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试直播流的共享分发
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class TestStreamHub {
+
+    private static final String URL = "http://127.0.0.1/live";
+
+    private StreamHub streamHub;
+
+    @BeforeEach
+    void setUp() {
+        streamHub = new StreamHub();
+        ReflectionTestUtils.setField(streamHub, "proxyProperties", new ProxyProperties());
+        ReflectionTestUtils.setField(streamHub, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(streamHub, "threadFactories", new ThreadFactories(false));
+        streamHub.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void tearDown() {
+        streamHub.destroy();
+    }
+
+    /**
+     * 生成 TS 包，包内除了同步字节外不会出现 0x47
+     */
+    private static byte[] packets(int count) {
+        byte[] data = new byte[count * 188];
+        Arrays.fill(data, (byte) 0x11);
+        for (int i = 0; i < data.length; i += 188) {
+            data[i] = 0x47;
+        }
+        return data;
+    }
+
+    private static ResponseBody body(String contentType, byte[] data) {
+        return ResponseBody.create(data, contentType == null ? null : MediaType.get(contentType));
+    }
+
+    /**
+     * 读取到至少 expected 字节或者超时
+     */
+    private static byte[] readAtLeast(StreamHub.Subscription subscription, int expected) throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        long deadline = System.currentTimeMillis() + 3000;
+        while (out.size() < expected && System.currentTimeMillis() < deadline) {
+            int n = subscription.poll(buf);
+            if (n < 0) {
+                break;
+            }
+            if (n == 0) {
+                Thread.sleep(5);
+                continue;
+            }
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void testIsTransportStream() throws IOException {
+        assertTrue(StreamHub.isTransportStream(body("video/MP2T", new byte[0])));
+        assertTrue(StreamHub.isTransportStream(body("application/octet-stream", packets(2))));
+        assertTrue(StreamHub.isTransportStream(body(null, packets(3))));
+        byte[] flv = new byte[1024];
+        flv[0] = 'F';
+        flv[1] = 'L';
+        flv[2] = 'V';
+        assertFalse(StreamHub.isTransportStream(body("video/x-flv", flv)));
+        // 只有一个包，无法确认
+        assertFalse(StreamHub.isTransportStream(body(null, packets(1))));
+    }
+
+    @Test
+    void testSubscribersStartAtPacketBoundary() throws Exception {
+        Pipe pipe = new Pipe(1024 * 1024);
+        BufferedSink upstream = Okio.buffer(pipe.sink());
+        Call call = new OkHttpClient().newCall(new Request.Builder().url(URL).build());
+        Response resp = new Response.Builder()
+                .request(call.request())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(Okio.buffer(pipe.source()), MediaType.get("video/mp2t"), -1))
+                .build();
+        // 上游从包的中间开始
+        byte[] head = new byte[100];
+        Arrays.fill(head, (byte) 0x22);
+        upstream.write(head).write(packets(10)).flush();
+
+        StreamHub.Subscription first = streamHub.publish(URL, call, resp);
+        byte[] read = readAtLeast(first, 9 * 188);
+        assertEquals(0x47, read[0]);
+        assertEquals(0, read.length % 188);
+
+        // 后加入的观众在包的中间加入时也从下一个包的开头开始
+        upstream.write(Arrays.copyOfRange(packets(1), 0, 50)).flush();
+        Thread.sleep(100);
+        StreamHub.Subscription second = streamHub.subscribe(URL);
+        assertNotNull(second);
+        upstream.write(Arrays.copyOfRange(packets(1), 50, 188)).write(packets(5)).flush();
+        read = readAtLeast(second, 188);
+        assertTrue(read.length > 0);
+        assertEquals(0x47, read[0]);
+        for (int i = 0; i < read.length; i += 188) {
+            assertEquals(0x47, read[i]);
+        }
+
+        first.close();
+        second.close();
+        assertEquals(0, streamHub.getChannelCount());
+        upstream.close();
+    }
+
+    @Test
+    void testSyncSkipsGarbage() throws Exception {
+        Buffer data = new Buffer();
+        byte[] noise = new byte[300];
+        Arrays.fill(noise, (byte) 0x33);
+        noise[10] = 0x47;
+        data.write(noise).write(packets(4));
+        Call call = new OkHttpClient().newCall(new Request.Builder().url(URL).build());
+        Response resp = new Response.Builder()
+                .request(call.request())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(data, MediaType.get("video/mp2t"), -1))
+                .build();
+        StreamHub.Subscription subscription = streamHub.publish(URL, call, resp);
+        byte[] read = readAtLeast(subscription, 4 * 188);
+        // 单独的 0x47 不算对齐，跳过噪声后读到完整的 4 个包
+        assertEquals(4 * 188, read.length);
+        assertArrayEquals(packets(4), read);
+        subscription.close();
+    }
+}
@@ -0,0 +1,70 @@
+package com.ambitious.iptvserver.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试 m3u8 播放列表以及媒体分片的解析
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class TestM3u8Utils {
+
+    private static final String MASTER = "#EXTM3U\n"
+            + "#EXT-X-STREAM-INF:BANDWIDTH=1280000,RESOLUTION=1280x720\n"
+            + "720p/index.m3u8\n"
+            + "#EXT-X-STREAM-INF:BANDWIDTH=2560000,RESOLUTION=1920x1080\n"
+            + "1080p/index.m3u8\n";
+
+    private static final String MEDIA = "#EXTM3U\r\n"
+            + "#EXT-X-TARGETDURATION:10\r\n"
+            + "#EXT-X-KEY:METHOD=NONE\r\n"
+            + "#EXTINF:10.0,\r\n"
+            + "seg-1.ts\r\n"
+            + "#EXTINF:10.0,\r\n"
+            + "seg-2.ts\r\n";
+
+    @Test
+    void testPlaylist() {
+        byte[] bom = ("﻿" + MEDIA).getBytes(StandardCharsets.UTF_8);
+        assertTrue(M3u8Utils.isPlaylist(bom, bom.length));
+        assertTrue(M3u8Utils.isMasterPlaylist(MASTER));
+        assertFalse(M3u8Utils.isMasterPlaylist(MEDIA));
+        assertEquals("720p/index.m3u8", M3u8Utils.firstVariantUri(MASTER));
+        assertEquals("seg-1.ts", M3u8Utils.firstSegmentUri(MEDIA));
+        assertFalse(M3u8Utils.isEncrypted(MEDIA));
+        assertTrue(M3u8Utils.isEncrypted("#EXT-X-KEY:METHOD=AES-128,URI=\"key.bin\""));
+    }
+
+    @Test
+    void testRewriteUris() {
+        String playlist = "#EXTM3U\n"
+                + "#EXT-X-MAP:URI=\"init.mp4\"\n"
+                + "#EXT-X-KEY:METHOD=AES-128,URI=\"https://key.example.com/k?id=1\",IV=0x01\n"
+                + "#EXTINF:6.0,\n"
+                + "seg-1.m4s\n";
+        String rewritten = M3u8Utils.rewriteUris(playlist, uri -> "/p?u=" + uri);
+        assertEquals("#EXTM3U\n"
+                + "#EXT-X-MAP:URI=\"/p?u=init.mp4\"\n"
+                + "#EXT-X-KEY:METHOD=AES-128,URI=\"/p?u=https://key.example.com/k?id=1\",IV=0x01\n"
+                + "#EXTINF:6.0,\n"
+                + "/p?u=seg-1.m4s\n", rewritten);
+    }
+
+    @Test
+    void testMediaData() {
+        byte[] ts = new byte[188 * 2];
+        ts[0] = 0x47;
+        ts[188] = 0x47;
+        assertTrue(M3u8Utils.isMediaData(ts, ts.length));
+        ts[188] = 0x00;
+        assertFalse(M3u8Utils.isMediaData(ts, ts.length));
+        byte[] mp4 = {0, 0, 0, 24, 'f', 't', 'y', 'p'};
+        assertTrue(M3u8Utils.isMediaData(mp4, mp4.length));
+        byte[] html = "<html></html>".getBytes(StandardCharsets.US_ASCII);
+        assertFalse(M3u8Utils.isMediaData(html, html.length));
+    }
+}
@@ -0,0 +1,80 @@
+package com.ambitious.iptvserver.util;
+
+import com.ambitious.iptvserver.entity.ChannelMeta;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试 M3U 直播源列表解析
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class TestM3uParser {
+
+    @Test
+    void testGroupAndDedupe() throws IOException {
+        String playlist = "#EXTM3U x-tvg-url=\"http://epg.example.com/e.xml\"\n" +
+                "#EXTINF:-1 tvg-id=\"cctv1\" tvg-name=\"CCTV1\" tvg-logo=\"http://logo/1.png\" group-title=\"央视\",CCTV-1 综合\n" +
+                "http://a.example.com/1.m3u8\n" +
+                "#EXTINF:-1 tvg-id=\"cctv1\" tvg-name=\"CCTV1\",CCTV-1\n" +
+                "#EXTVLCOPT:http-user-agent=test\n" +
+                "http://b.example.com/1.m3u8\n" +
+                "#EXTINF:-1 tvg-name=\"CCTV1\",CCTV-1\n" +
+                "http://a.example.com/1.m3u8\n" +
+                "#EXTINF:-1,湖南卫视\n" +
+                "http://c.example.com/hunan.m3u8\n";
+        M3uParser.Result result = M3uParser.parse(new ByteArrayInputStream(playlist.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Arrays.asList("CCTV1", "湖南卫视"), Arrays.asList(result.getRawMap().keySet().toArray()));
+        List<String> cctv1 = CastUtils.cast(result.getRawMap().get("CCTV1"));
+        assertEquals(Arrays.asList("http://a.example.com/1.m3u8", "http://b.example.com/1.m3u8"), cctv1);
+        ChannelMeta meta = result.getChannels().get("CCTV1");
+        assertEquals("cctv1", meta.getTvgId());
+        assertEquals("http://logo/1.png", meta.getLogo());
+        assertEquals("央视", meta.getGroup());
+    }
+
+    @Test
+    void testKeyFallsBackToTvgId() throws IOException {
+        String playlist = "#EXTM3U\n" +
+                "#EXTINF:-1 tvg-id=\"cctv5\" group-title=\"央视\",CCTV-5 体育\n" +
+                "http://a.example.com/5.m3u8\n" +
+                "#EXTINF:-1 tvg-id=\"cctv5\",CCTV5\n" +
+                "http://b.example.com/5.m3u8\n";
+        M3uParser.Result result = M3uParser.parse(new ByteArrayInputStream(playlist.getBytes(StandardCharsets.UTF_8)));
+        // 没有 tvg-name 时按 tvg-id 分组，标题不同的条目归到同一个电视台
+        assertEquals(Collections.singletonList("cctv5"), Arrays.asList(result.getRawMap().keySet().toArray()));
+        List<String> cctv5 = CastUtils.cast(result.getRawMap().get("cctv5"));
+        assertEquals(Arrays.asList("http://a.example.com/5.m3u8", "http://b.example.com/5.m3u8"), cctv5);
+        ChannelMeta meta = result.getChannels().get("cctv5");
+        assertEquals("cctv5", meta.getTvgId());
+        // 显示名称使用标题
+        assertEquals("CCTV-5 体育", meta.getName());
+    }
+
+    @Test
+    void testUnquotedAttributes() throws IOException {
+        String playlist = "#EXTM3U\n" +
+                "#EXTINF:-1 tvg-id=cctv1 group-title=央视,CCTV1\n" +
+                "http://a.example.com/1.m3u8\n" +
+                "#EXTINF:-1 tvg-id=cctv2,CCTV2\n" +
+                "http://a.example.com/2.m3u8\n" +
+                "#EXTINF:-1 tvg-id=\"cctv3,CCTV3\n" +
+                "http://a.example.com/3.m3u8\n";
+        M3uParser.Result result = M3uParser.parse(new ByteArrayInputStream(playlist.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Arrays.asList("cctv1", "cctv2", "CCTV3"), Arrays.asList(result.getRawMap().keySet().toArray()));
+        ChannelMeta cctv1 = result.getChannels().get("cctv1");
+        assertEquals("央视", cctv1.getGroup());
+        assertEquals("CCTV1", cctv1.getName());
+        assertEquals("CCTV2", result.getChannels().get("cctv2").getName());
+        // 引号没有闭合时丢弃属性，标题仍然从逗号之后开始
+        assertNull(result.getChannels().get("CCTV3").getTvgId());
+    }
+}
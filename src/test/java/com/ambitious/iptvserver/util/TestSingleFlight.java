@@ -0,0 +1,41 @@
+package com.ambitious.iptvserver.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试并发调用合并
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class TestSingleFlight {
+
+    @Test
+    void testDeduplicate() {
+        SingleFlight<String, Integer> flight = new SingleFlight<>();
+        AtomicInteger executed = new AtomicInteger();
+        CompletableFuture<Integer> pending = new CompletableFuture<>();
+        CompletableFuture<Integer> first = flight.execute("cctv1", () -> {
+            executed.incrementAndGet();
+            return pending;
+        });
+        CompletableFuture<Integer> second = flight.execute("cctv1", () -> {
+            executed.incrementAndGet();
+            return CompletableFuture.completedFuture(2);
+        });
+        assertSame(first, second);
+        assertEquals(1, flight.getInFlight());
+        pending.complete(1);
+        assertEquals(1, second.join());
+        assertEquals(0, flight.getInFlight());
+        // 上一次执行完成后，再次调用会重新执行
+        assertEquals(3, flight.execute("cctv1", () -> CompletableFuture.completedFuture(3)).join());
+        assertEquals(1, executed.get());
+        assertEquals(3, flight.getCalls());
+        assertEquals(1, flight.getDeduplicated());
+    }
+}
@@ -0,0 +1,28 @@
+package com.ambitious.iptvserver.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试滑动窗口计数
+ * @author ambitious
+ * @date 2026/10/18
+ */
+public class TestWindowedCounter {
+
+    @Test
+    void testExpiredBucketsAreDropped() {
+        WindowedCounter counter = new WindowedCounter(60_000, 6);
+        counter.increment(0);
+        counter.increment(5_000);
+        counter.increment(15_000);
+        assertEquals(3, counter.sum(15_000));
+        // 第一个桶滑出窗口
+        assertEquals(1, counter.sum(65_000));
+        // 复用过期的桶时先清零
+        counter.increment(60_000);
+        assertEquals(2, counter.sum(60_000));
+        assertEquals(0, counter.sum(200_000));
+    }
+}